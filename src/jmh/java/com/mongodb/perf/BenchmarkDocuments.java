@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2008-2014 MongoDB, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mongodb.perf;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+/**
+ * The document shapes used by the JUnit performance tests, selectable by name from a JMH {@code @Param}.
+ */
+final class BenchmarkDocuments {
+    static final String SINGLE_STRING = "string";
+    static final String SINGLE_INT = "int";
+    static final String HUNDRED_STRINGS = "100strings";
+    static final String HUNDRED_INTS = "100ints";
+
+    private BenchmarkDocuments() {
+    }
+
+    static DBObject create(final String shape) {
+        if (SINGLE_STRING.equals(shape)) {
+            return new BasicDBObject("name", "String value");
+        } else if (SINGLE_INT.equals(shape)) {
+            return new BasicDBObject("name", 1);
+        } else if (HUNDRED_STRINGS.equals(shape)) {
+            DBObject document = new BasicDBObject();
+            for (int i = 0; i < 100; i++) {
+                document.put("field" + i, "value " + i);
+            }
+            return document;
+        } else if (HUNDRED_INTS.equals(shape)) {
+            DBObject document = new BasicDBObject();
+            for (int i = 0; i < 100; i++) {
+                document.put("field" + i, i);
+            }
+            return document;
+        }
+        throw new IllegalArgumentException("Unknown document shape: " + shape);
+    }
+}
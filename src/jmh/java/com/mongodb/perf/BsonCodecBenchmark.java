@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2008-2014 MongoDB, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mongodb.perf;
+
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.DefaultDBDecoder;
+import com.mongodb.DefaultDBEncoder;
+import org.bson.BSONObject;
+import org.bson.BasicBSONDecoder;
+import org.bson.BasicBSONEncoder;
+import org.bson.io.BasicOutputBuffer;
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes and decodes the document shapes of the insert and query tests without going near a socket, to separate the cost of
+ * the BSON codec from the cost of the transport.
+ *
+ * <p>The {@code basic} benchmarks use {@code BasicBSONEncoder}/{@code BasicBSONDecoder} as {@code org.bson.BSON} does; the
+ * {@code db} benchmarks use {@code DefaultDBEncoder} and {@code DefaultDBDecoder}, which is what the driver does on the wire,
+ * encoding into a reused {@code BasicOutputBuffer}, as the driver's {@code PoolOutputBuffer} is deprecated in 2.12.  Average
+ * time is per document; the {@code bytes} counter in throughput mode gives the bytes encoded or decoded per nanosecond (GB/s).
+ * Run with {@code -Pjmh.profilers=gc} to see the bytes allocated per document as {@code gc.alloc.rate.norm}.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.AverageTime, Mode.Throughput})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(3)
+public class BsonCodecBenchmark {
+    @Param({BenchmarkDocuments.SINGLE_STRING, BenchmarkDocuments.SINGLE_INT,
+            BenchmarkDocuments.HUNDRED_STRINGS, BenchmarkDocuments.HUNDRED_INTS})
+    private String shape;
+
+    private final BasicBSONEncoder basicEncoder = new BasicBSONEncoder();
+    private final BasicBSONDecoder basicDecoder = new BasicBSONDecoder();
+    private final DefaultDBEncoder dbEncoder = new DefaultDBEncoder();
+    private final DefaultDBDecoder dbDecoder = new DefaultDBDecoder();
+    private final BasicOutputBuffer buffer = new BasicOutputBuffer();
+    private DBObject document;
+    private byte[] encodedDocument;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        document = BenchmarkDocuments.create(shape);
+        // every document on the wire has an _id
+        document.put("_id", new ObjectId());
+        encodedDocument = new BasicBSONEncoder().encode(document);
+    }
+
+    @Benchmark
+    public byte[] encodeBasic(final ByteCounter counter) {
+        byte[] bytes = basicEncoder.encode(document);
+        counter.bytes += bytes.length;
+        return bytes;
+    }
+
+    @Benchmark
+    public int encodeDB(final ByteCounter counter) {
+        buffer.truncateToPosition(0);
+        int size = dbEncoder.writeObject(buffer, document);
+        counter.bytes += size;
+        return size;
+    }
+
+    @Benchmark
+    public BSONObject decodeBasic(final ByteCounter counter) {
+        counter.bytes += encodedDocument.length;
+        return basicDecoder.readObject(encodedDocument);
+    }
+
+    @Benchmark
+    public DBObject decodeDB(final ByteCounter counter) {
+        counter.bytes += encodedDocument.length;
+        return dbDecoder.decode(encodedDocument, (DBCollection) null);
+    }
+
+    /**
+     * Counts the bytes encoded or decoded, which JMH reports alongside the primary result.
+     */
+    @State(Scope.Thread)
+    @AuxCounters
+    public static class ByteCounter {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2008-2014 MongoDB, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mongodb.perf;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.Fixture;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH port of {@link DeletePerformanceTest}.  A delete consumes the document it removes, so every invocation deletes a freshly
+ * populated collection one {@code _id} at a time; {@code @OperationsPerInvocation} turns that back into a per-delete figure.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(3)
+public class DeleteBenchmark {
+    private static final int NUMBER_OF_DOCUMENTS = 2_000;
+
+    private DBCollection collection;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        collection = Fixture.getDefaultDatabase().getCollection(getClass().getName());
+        collection.drop();
+    }
+
+    @Setup(Level.Invocation)
+    public void populateCollection() {
+        DBObject document = new BasicDBObject("name", "String value");
+        for (int i = 0; i < NUMBER_OF_DOCUMENTS; i++) {
+            document.put("_id", i);
+            collection.insert(document);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        collection.drop();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUMBER_OF_DOCUMENTS)
+    public void delete(final Blackhole blackhole) {
+        for (int i = 0; i < NUMBER_OF_DOCUMENTS; i++) {
+            blackhole.consume(collection.remove(new BasicDBObject("_id", i)));
+        }
+    }
+}
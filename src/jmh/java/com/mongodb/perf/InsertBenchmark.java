@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2008-2014 MongoDB, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mongodb.perf;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.Fixture;
+import com.mongodb.WriteResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH port of {@link InsertPerformanceTest}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(3)
+public class InsertBenchmark {
+    @Param({BenchmarkDocuments.SINGLE_STRING, BenchmarkDocuments.SINGLE_INT,
+            BenchmarkDocuments.HUNDRED_STRINGS, BenchmarkDocuments.HUNDRED_INTS})
+    private String shape;
+
+    private DBCollection collection;
+    private DBObject document;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        collection = Fixture.getDefaultDatabase().getCollection(getClass().getName());
+        collection.drop();
+        document = BenchmarkDocuments.create(shape);
+    }
+
+    @Setup(Level.Iteration)
+    public void emptyCollection() {
+        collection.remove(new BasicDBObject());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        collection.drop();
+    }
+
+    @Benchmark
+    public WriteResult insert() {
+        document.removeField("_id");
+        return collection.insert(document);
+    }
+}
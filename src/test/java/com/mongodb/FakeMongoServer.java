@@ -0,0 +1,588 @@
+/*
+ * Copyright (c) 2008-2014 MongoDB, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mongodb;
+
+import org.bson.BSON;
+import org.bson.BSONObject;
+import org.bson.BasicBSONObject;
+import org.bson.types.BasicBSONList;
+import org.bson.types.ObjectId;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * An in-process stand-in for mongod that speaks just enough of the wire protocol for the performance tests to run against it.
+ * It answers the handshake, {@code serverStatus}, write commands, legacy inserts, updates and deletes, {@code findAndModify},
+ * {@code createIndexes}, {@code collStats}, queries, aggregations and getMores with canned replies, so that the tests measure the
+ * cost of the driver without the variance of a real server.  Any other command fails with "no such cmd", as it would on a server
+ * that didn't know it.
+ *
+ * <p>Nothing is really stored.  For each namespace the server remembers how many documents are in it and the last document
+ * inserted, and a query returns that many copies of the last document, whatever its criteria or projection.  An aggregation does
+ * the same, apart from applying its {@code $limit} stages, and {@code findAndModify} returns the last document unchanged.</p>
+ *
+ * <p>All connections are served by a single selector thread.</p>
+ */
+public final class FakeMongoServer implements Closeable {
+    static final String SERVER_VERSION = "2.6.5";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int OP_REPLY = 1;
+    private static final int OP_UPDATE = 2001;
+    private static final int OP_INSERT = 2002;
+    private static final int OP_QUERY = 2004;
+    private static final int OP_GET_MORE = 2005;
+    private static final int OP_DELETE = 2006;
+    private static final int OP_KILL_CURSORS = 2007;
+    private static final int HEADER_LENGTH = 16;
+    private static final int REPLY_HEADER_LENGTH = HEADER_LENGTH + 20;
+    private static final int UPSERT_FLAG = 1;
+    private static final int MULTI_UPDATE_FLAG = 2;
+    private static final int SINGLE_REMOVE_FLAG = 1;
+    private static final int CURSOR_NOT_FOUND_FLAG = 1;
+    private static final int DEFAULT_FIRST_BATCH_SIZE = 101;
+    private static final int MAX_BATCH_BYTES = 4 * 1024 * 1024;
+    private static final int MAX_BSON_OBJECT_SIZE = 16 * 1024 * 1024;
+    private static final int MAX_MESSAGE_SIZE = 48000000;
+    private static final int MAX_WRITE_BATCH_SIZE = 1000;
+    private static final int AGGREGATION_RESULT_TOO_LARGE = 16389;
+    private static final int NO_SUCH_COMMAND = 59;
+
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final Thread selectorThread;
+    private final Map<String, Namespace> namespaces = new HashMap<String, Namespace>();
+    private final Map<Long, Cursor> cursors = new HashMap<Long, Cursor>();
+    private long nextCursorId = 1;
+    private int nextRequestId = 1;
+    private volatile boolean closed;
+
+    /**
+     * Starts a server listening on the given address.
+     *
+     * @param address the address to bind to
+     * @throws IOException if the address cannot be bound
+     */
+    public FakeMongoServer(final InetSocketAddress address) throws IOException {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.configureBlocking(false);
+        serverChannel.socket().setReuseAddress(true);
+        serverChannel.socket().bind(address);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        selectorThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                serve();
+            }
+        }, "FakeMongoServer-" + getPort());
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+    }
+
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        selector.wakeup();
+        try {
+            selectorThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void serve() {
+        try {
+            while (!closed) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else {
+                            if (key.isReadable()) {
+                                ((Connection) key.attachment()).read();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                ((Connection) key.attachment()).write();
+                            }
+                        }
+                    } catch (IOException e) {
+                        key.cancel();
+                        key.channel().close();
+                    } catch (RuntimeException e) {
+                        // e.g. a message this server doesn't understand; only the connection that sent it is given up on
+                        System.err.printf("FakeMongoServer closing a connection after: %s%n", e);
+                        e.printStackTrace();
+                        key.cancel();
+                        key.channel().close();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("FakeMongoServer failed", e);
+        } finally {
+            closeQuietly();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            key.attach(new Connection(channel, key));
+        }
+    }
+
+    private void closeQuietly() {
+        for (SelectionKey key : selector.keys()) {
+            try {
+                key.channel().close();
+            } catch (IOException e) {
+                // ignore, we're shutting down
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            // ignore, we're shutting down
+        }
+    }
+
+    private final class Connection {
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final Queue<ByteBuffer> pendingReplies = new ArrayDeque<ByteBuffer>();
+        private ByteBuffer in = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+        private int lastWriteCount;
+
+        Connection(final SocketChannel channel, final SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+
+        void read() throws IOException {
+            if (channel.read(in) < 0) {
+                throw new IOException("Connection closed by client");
+            }
+            in.flip();
+            while (in.remaining() >= 4) {
+                int messageLength = in.getInt(in.position());
+                if (in.remaining() < messageLength) {
+                    break;
+                }
+                ByteBuffer message = in.slice().order(ByteOrder.LITTLE_ENDIAN);
+                message.limit(messageLength);
+                in.position(in.position() + messageLength);
+                handle(message);
+            }
+            in.compact();
+            if (in.remaining() == 0) {
+                in.flip();
+                in = ByteBuffer.allocate(in.capacity() * 2).order(ByteOrder.LITTLE_ENDIAN).put(in);
+            }
+            write();
+        }
+
+        void write() throws IOException {
+            while (!pendingReplies.isEmpty()) {
+                ByteBuffer reply = pendingReplies.peek();
+                channel.write(reply);
+                if (reply.hasRemaining()) {
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+                pendingReplies.remove();
+            }
+            key.interestOps(SelectionKey.OP_READ);
+        }
+
+        private void handle(final ByteBuffer message) {
+            message.getInt();
+            int requestId = message.getInt();
+            message.getInt();
+            int opCode = message.getInt();
+            switch (opCode) {
+                case OP_QUERY:
+                    query(requestId, message);
+                    break;
+                case OP_GET_MORE:
+                    getMore(requestId, message);
+                    break;
+                case OP_INSERT:
+                    message.getInt();
+                    lastWriteCount = insert(readCString(message), message);
+                    break;
+                case OP_UPDATE:
+                    message.getInt();
+                    String updateNamespace = readCString(message);
+                    int updateFlags = message.getInt();
+                    lastWriteCount = update(updateNamespace, readDocument(message), readDocument(message),
+                                            (updateFlags & UPSERT_FLAG) != 0, (updateFlags & MULTI_UPDATE_FLAG) != 0, null);
+                    break;
+                case OP_DELETE:
+                    message.getInt();
+                    String deleteNamespace = readCString(message);
+                    int deleteFlags = message.getInt();
+                    lastWriteCount = delete(deleteNamespace, readDocument(message), (deleteFlags & SINGLE_REMOVE_FLAG) != 0);
+                    break;
+                case OP_KILL_CURSORS:
+                    message.getInt();
+                    int numberOfCursors = message.getInt();
+                    for (int i = 0; i < numberOfCursors; i++) {
+                        cursors.remove(message.getLong());
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported opCode " + opCode);
+            }
+        }
+
+        private void query(final int requestId, final ByteBuffer message) {
+            message.getInt();
+            String namespace = readCString(message);
+            int numberToSkip = message.getInt();
+            int numberToReturn = message.getInt();
+            if (namespace.endsWith(".$cmd")) {
+                BSONObject command = readDocument(message);
+                String database = namespace.substring(0, namespace.length() - ".$cmd".length());
+                reply(requestId, 0, 0, Arrays.asList(BSON.encode(command(database, command))));
+            } else {
+                Namespace collection = namespaces.get(namespace);
+                long available = collection == null ? 0 : Math.max(0, collection.count - numberToSkip);
+                boolean singleBatch = numberToReturn < 0 || numberToReturn == 1;
+                int batchSize = numberToReturn == 0 ? DEFAULT_FIRST_BATCH_SIZE : Math.abs(numberToReturn);
+                Cursor cursor = new Cursor(collection, available);
+                List<byte[]> batch = cursor.nextBatch(batchSize);
+                long cursorId = 0;
+                if (!singleBatch && cursor.remaining > 0) {
+                    cursorId = nextCursorId++;
+                    cursors.put(cursorId, cursor);
+                }
+                reply(requestId, 0, cursorId, batch);
+            }
+        }
+
+        private void getMore(final int requestId, final ByteBuffer message) {
+            message.getInt();
+            readCString(message);
+            int numberToReturn = message.getInt();
+            long cursorId = message.getLong();
+            Cursor cursor = cursors.get(cursorId);
+            if (cursor == null) {
+                reply(requestId, CURSOR_NOT_FOUND_FLAG, 0, Collections.<byte[]>emptyList());
+                return;
+            }
+            List<byte[]> batch = cursor.nextBatch(numberToReturn == 0 ? Integer.MAX_VALUE : Math.abs(numberToReturn));
+            if (cursor.remaining == 0) {
+                cursors.remove(cursorId);
+                cursorId = 0;
+            }
+            reply(requestId, 0, cursorId, batch);
+        }
+
+        private BSONObject command(final String database, final BSONObject command) {
+            String name = command.keySet().iterator().next();
+            String collectionNamespace = database + "." + command.get(name);
+            BasicBSONObject reply = new BasicBSONObject();
+            if (name.equalsIgnoreCase("ismaster")) {
+                reply.append("ismaster", true)
+                     .append("maxBsonObjectSize", MAX_BSON_OBJECT_SIZE)
+                     .append("maxMessageSizeBytes", MAX_MESSAGE_SIZE)
+                     .append("maxWriteBatchSize", MAX_WRITE_BATCH_SIZE)
+                     .append("localTime", new Date())
+                     .append("maxWireVersion", 2)
+                     .append("minWireVersion", 0);
+            } else if (name.equalsIgnoreCase("buildinfo")) {
+                reply.append("version", SERVER_VERSION)
+                     .append("versionArray", Arrays.asList(2, 6, 5, 0));
+            } else if (name.equalsIgnoreCase("serverStatus")) {
+                reply.append("host", "localhost:" + getPort())
+                     .append("version", SERVER_VERSION)
+                     .append("process", "mongod");
+            } else if (name.equals("insert")) {
+                List<?> documents = (List<?>) command.get("documents");
+                for (Object document : documents) {
+                    storeDocument(collectionNamespace, BSON.encode((BSONObject) document));
+                }
+                reply.append("n", documents.size());
+            } else if (name.equals("update")) {
+                int n = 0;
+                BasicBSONList upserted = new BasicBSONList();
+                List<?> updates = (List<?>) command.get("updates");
+                for (int i = 0; i < updates.size(); i++) {
+                    BSONObject update = (BSONObject) updates.get(i);
+                    BasicBSONObject upsertedId = new BasicBSONObject("index", i);
+                    n += update(collectionNamespace, (BSONObject) update.get("q"), (BSONObject) update.get("u"),
+                                Boolean.TRUE.equals(update.get("upsert")), Boolean.TRUE.equals(update.get("multi")), upsertedId);
+                    if (upsertedId.containsField("_id")) {
+                        upserted.add(upsertedId);
+                    }
+                }
+                reply.append("n", n).append("nModified", n - upserted.size());
+                if (!upserted.isEmpty()) {
+                    reply.append("upserted", upserted);
+                }
+            } else if (name.equals("delete")) {
+                int n = 0;
+                for (Object delete : (List<?>) command.get("deletes")) {
+                    BSONObject deleteRequest = (BSONObject) delete;
+                    Number limit = (Number) deleteRequest.get("limit");
+                    n += delete(collectionNamespace, (BSONObject) deleteRequest.get("q"), limit != null && limit.intValue() == 1);
+                }
+                reply.append("n", n);
+            } else if (name.equalsIgnoreCase("getlasterror")) {
+                reply.append("n", lastWriteCount).append("err", null);
+            } else if (name.equals("aggregate")) {
+                return aggregate(collectionNamespace, command);
+            } else if (name.equalsIgnoreCase("findAndModify")) {
+                return findAndModify(collectionNamespace, command);
+            } else if (name.equals("count")) {
+                Namespace collection = namespaces.get(collectionNamespace);
+                reply.append("n", collection == null ? 0 : collection.count);
+            } else if (name.equals("createIndexes")) {
+                // indexes change nothing here, as every query returns the same documents anyway
+                reply.append("numIndexesBefore", 1)
+                     .append("numIndexesAfter", 1 + ((List<?>) command.get("indexes")).size());
+            } else if (name.equalsIgnoreCase("collStats")) {
+                Namespace collection = namespaces.get(collectionNamespace);
+                long count = collection == null ? 0 : collection.count;
+                int documentSize = collection == null || collection.lastDocument == null ? 0 : collection.lastDocument.length;
+                reply.append("ns", collectionNamespace)
+                     .append("count", count)
+                     .append("size", count * documentSize)
+                     .append("avgObjSize", documentSize);
+            } else if (name.equals("drop")) {
+                namespaces.remove(collectionNamespace);
+                reply.append("ns", collectionNamespace);
+            } else if (name.equals("dropDatabase")) {
+                Iterator<String> iterator = namespaces.keySet().iterator();
+                while (iterator.hasNext()) {
+                    if (iterator.next().startsWith(database + ".")) {
+                        iterator.remove();
+                    }
+                }
+                reply.append("dropped", database);
+            } else {
+                return new BasicBSONObject("errmsg", "no such cmd: " + name).append("bad cmd", command)
+                       .append("code", NO_SUCH_COMMAND).append("ok", 0.0);
+            }
+            return reply.append("ok", 1.0);
+        }
+
+        // only $limit stages are applied; otherwise the pipeline returns the whole collection, as a query does
+        private BSONObject aggregate(final String namespace, final BSONObject command) {
+            Namespace collection = namespaces.get(namespace);
+            long available = collection == null ? 0 : collection.count;
+            for (Object stage : (List<?>) command.get("pipeline")) {
+                Object limit = ((BSONObject) stage).get("$limit");
+                if (limit instanceof Number) {
+                    available = Math.min(available, ((Number) limit).longValue());
+                }
+            }
+            Cursor cursor = new Cursor(collection, available);
+            BSONObject cursorOptions = (BSONObject) command.get("cursor");
+            if (cursorOptions == null) {
+                BasicBSONList result = new BasicBSONList();
+                long resultSize = 0;
+                while (cursor.remaining > 0) {
+                    for (byte[] document : cursor.nextBatch(Integer.MAX_VALUE)) {
+                        resultSize += document.length;
+                        result.add(BSON.decode(document));
+                    }
+                    if (resultSize > MAX_BSON_OBJECT_SIZE) {
+                        return new BasicBSONObject("errmsg", "exception: aggregation result exceeds maximum document size (16MB)")
+                               .append("code", AGGREGATION_RESULT_TOO_LARGE)
+                               .append("ok", 0.0);
+                    }
+                }
+                return new BasicBSONObject("result", result).append("ok", 1.0);
+            }
+            Number batchSize = (Number) cursorOptions.get("batchSize");
+            BasicBSONList firstBatch = new BasicBSONList();
+            for (byte[] document : cursor.nextBatch(batchSize == null ? DEFAULT_FIRST_BATCH_SIZE : batchSize.intValue())) {
+                firstBatch.add(BSON.decode(document));
+            }
+            long cursorId = 0;
+            if (cursor.remaining > 0) {
+                cursorId = nextCursorId++;
+                cursors.put(cursorId, cursor);
+            }
+            return new BasicBSONObject("cursor", new BasicBSONObject("id", cursorId).append("ns", namespace)
+                                                                                      .append("firstBatch", firstBatch))
+                   .append("ok", 1.0);
+        }
+
+        // neither the update nor the projection is applied; a matching document is the last one stored, as it was
+        private BSONObject findAndModify(final String namespace, final BSONObject command) {
+            Namespace collection = namespaces.get(namespace);
+            BasicBSONObject lastErrorObject = new BasicBSONObject();
+            BSONObject value = null;
+            if (collection != null && collection.count > 0) {
+                value = BSON.decode(collection.lastDocument);
+                if (Boolean.TRUE.equals(command.get("remove"))) {
+                    collection.count--;
+                } else {
+                    lastErrorObject.append("updatedExisting", true);
+                }
+                lastErrorObject.append("n", 1);
+            } else if (Boolean.TRUE.equals(command.get("upsert"))) {
+                BSONObject query = (BSONObject) command.get("query");
+                BasicBSONObject upsertedId = new BasicBSONObject();
+                update(namespace, query == null ? new BasicBSONObject() : query, (BSONObject) command.get("update"), true, false,
+                       upsertedId);
+                if (Boolean.TRUE.equals(command.get("new"))) {
+                    value = BSON.decode(namespaces.get(namespace).lastDocument);
+                }
+                lastErrorObject.append("updatedExisting", false).append("n", 1).append("upserted", upsertedId.get("_id"));
+            } else {
+                lastErrorObject.append("n", 0);
+            }
+            return new BasicBSONObject("lastErrorObject", lastErrorObject).append("value", value).append("ok", 1.0);
+        }
+
+        private void reply(final int responseTo, final int flags, final long cursorId, final List<byte[]> documents) {
+            int length = REPLY_HEADER_LENGTH;
+            for (byte[] document : documents) {
+                length += document.length;
+            }
+            ByteBuffer reply = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+            reply.putInt(length).putInt(nextRequestId++).putInt(responseTo).putInt(OP_REPLY);
+            reply.putInt(flags).putLong(cursorId).putInt(0).putInt(documents.size());
+            for (byte[] document : documents) {
+                reply.put(document);
+            }
+            reply.flip();
+            pendingReplies.add(reply);
+        }
+    }
+
+    private int insert(final String namespace, final ByteBuffer message) {
+        int n = 0;
+        while (message.hasRemaining()) {
+            byte[] document = new byte[message.getInt(message.position())];
+            message.get(document);
+            storeDocument(namespace, document);
+            n++;
+        }
+        return n;
+    }
+
+    private int update(final String namespace, final BSONObject query, final BSONObject update, final boolean upsert,
+                       final boolean multi, final BSONObject upsertedId) {
+        Namespace collection = namespaces.get(namespace);
+        if (collection != null && collection.count > 0) {
+            return multi ? (int) collection.count : 1;
+        }
+        if (!upsert) {
+            return 0;
+        }
+        Object id = query.containsField("_id") ? query.get("_id") : new ObjectId();
+        storeDocument(namespace, BSON.encode(new BasicBSONObject("_id", id)));
+        if (upsertedId != null) {
+            upsertedId.put("_id", id);
+        }
+        return 1;
+    }
+
+    private int delete(final String namespace, final BSONObject query, final boolean justOne) {
+        Namespace collection = namespaces.get(namespace);
+        if (collection == null) {
+            return 0;
+        }
+        long n = query.keySet().isEmpty() && !justOne ? collection.count : Math.min(1, collection.count);
+        collection.count -= n;
+        return (int) n;
+    }
+
+    private void storeDocument(final String namespace, final byte[] document) {
+        Namespace collection = namespaces.get(namespace);
+        if (collection == null) {
+            collection = new Namespace();
+            namespaces.put(namespace, collection);
+        }
+        collection.count++;
+        collection.lastDocument = document;
+    }
+
+    private static String readCString(final ByteBuffer buffer) {
+        int end = buffer.position();
+        while (buffer.get(end) != 0) {
+            end++;
+        }
+        byte[] bytes = new byte[end - buffer.position()];
+        buffer.get(bytes);
+        buffer.get();
+        return new String(bytes, UTF_8);
+    }
+
+    private static BSONObject readDocument(final ByteBuffer buffer) {
+        byte[] document = new byte[buffer.getInt(buffer.position())];
+        buffer.get(document);
+        return BSON.decode(document);
+    }
+
+    private static final class Namespace {
+        private long count;
+        private byte[] lastDocument;
+    }
+
+    private static final class Cursor {
+        private final byte[] document;
+        private long remaining;
+
+        Cursor(final Namespace collection, final long remaining) {
+            this.document = collection == null ? null : collection.lastDocument;
+            this.remaining = remaining;
+        }
+
+        List<byte[]> nextBatch(final int requested) {
+            int maxByBytes = Math.max(1, MAX_BATCH_BYTES / Math.max(1, document == null ? 1 : document.length));
+            int batchSize = (int) Math.min(remaining, Math.min(requested, maxByBytes));
+            remaining -= batchSize;
+            return Collections.nCopies(batchSize, document);
+        }
+    }
+}
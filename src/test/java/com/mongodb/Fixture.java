@@ -16,7 +16,11 @@
 
 package com.mongodb;
 
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.util.jar.JarFile;
 
 /**
  * Helper class for the acceptance tests.
@@ -24,8 +28,11 @@ import java.net.UnknownHostException;
 public final class Fixture {
     public static final String DEFAULT_URI = "mongodb://localhost:27017";
     public static final String MONGODB_URI_SYSTEM_PROPERTY_NAME = "org.mongodb.test.uri";
+    public static final String FAKE_SERVER_SYSTEM_PROPERTY_NAME = "org.mongodb.test.fakeServer";
+    public static final String DRIVER_VERSION_SYSTEM_PROPERTY_NAME = "org.mongodb.test.driverVersion";
 
     private static MongoClient mongoClient;
+    private static FakeMongoServer fakeServer;
     private static MongoClientURI mongoClientURI;
     private static DB defaultDatabase;
 
@@ -34,6 +41,7 @@ public final class Fixture {
 
     public static synchronized MongoClient getMongoClient() {
         if (mongoClient == null) {
+            startFakeServerIfRequested();
             MongoClientURI mongoURI = getMongoClientURI();
             try {
                 mongoClient = new MongoClient(mongoURI);
@@ -45,6 +53,23 @@ public final class Fixture {
         return mongoClient;
     }
 
+    /**
+     * Creates a new client for the test URI, with {@code builder} supplying any options that the URI does not set.  The caller
+     * is responsible for closing it.
+     *
+     * @param builder the options to use for anything not set in the URI
+     * @return a new client
+     */
+    public static MongoClient createMongoClient(final MongoClientOptions.Builder builder) {
+        startFakeServerIfRequested();
+        MongoClientURI mongoURI = new MongoClientURI(getMongoClientURI().getURI(), builder);
+        try {
+            return new MongoClient(mongoURI);
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException("Invalid Mongo URI: " + mongoURI.getURI(), e);
+        }
+    }
+
     public static synchronized DB getDefaultDatabase() {
         if (defaultDatabase == null) {
             defaultDatabase = getMongoClient().getDB("DriverTest-" + System.nanoTime());
@@ -58,10 +83,63 @@ public final class Fixture {
      * @return true if server is at least specified version
      */
     public static boolean serverIsAtLeastVersion(double version) {
-        String serverVersion = (String) getMongoClient().getDB("admin").command("serverStatus").get("version");
+        String serverVersion = getServerVersion();
         return Double.parseDouble(serverVersion.substring(0, 3)) >= version;
     }
 
+    /**
+     * @return true if the server is a member of a replica set
+     */
+    public static boolean isReplicaSet() {
+        return getMongoClient().getDB("admin").command("ismaster").containsField("setName");
+    }
+
+    /**
+     * @return the version reported by the server's {@code serverStatus}, e.g. 2.6.5
+     */
+    public static String getServerVersion() {
+        return getServerVersion(getMongoClient().getDB("admin"));
+    }
+
+    /**
+     * @param database a database on the server to ask, which needn't be the test URI's
+     * @return the version reported by that server's {@code serverStatus}, e.g. 2.6.5
+     */
+    public static String getServerVersion(final DB database) {
+        return (String) database.getSisterDB("admin").command("serverStatus").get("version");
+    }
+
+    /**
+     * @return the full version of the driver on the classpath, e.g. 2.12.4, taken from the bundle version in its manifest unless
+     * it is given with {@code -Dorg.mongodb.test.driverVersion}
+     */
+    public static String getDriverVersion() {
+        String driverVersionProperty = System.getProperty(DRIVER_VERSION_SYSTEM_PROPERTY_NAME);
+        if (driverVersionProperty != null && driverVersionProperty.length() != 0) {
+            return driverVersionProperty;
+        }
+        try {
+            JarFile jarFile = new JarFile(new File(Mongo.class.getProtectionDomain().getCodeSource().getLocation().toURI()));
+            try {
+                String bundleVersion = jarFile.getManifest().getMainAttributes().getValue("Bundle-Version");
+                if (bundleVersion != null) {
+                    return bundleVersion.replace(".RELEASE", "");
+                }
+            } finally {
+                jarFile.close();
+            }
+        } catch (Exception e) {
+            // not running from the driver jar, fall back to the compiled-in version
+        }
+        return getCompiledInDriverVersion();
+    }
+
+    // deprecated, but when the driver isn't loaded from its jar there is no manifest, and 2.12 has no other way to ask for its version
+    @SuppressWarnings("deprecation")
+    private static String getCompiledInDriverVersion() {
+        return Mongo.getMajorVersion() + "." + Mongo.getMinorVersion();
+    }
+
     static class ShutdownHook extends Thread {
         @Override
         public void run() {
@@ -73,6 +151,10 @@ public final class Fixture {
                     mongoClient.close();
                     mongoClient = null;
                 }
+                if (fakeServer != null) {
+                    fakeServer.close();
+                    fakeServer = null;
+                }
             }
         }
     }
@@ -87,6 +169,27 @@ public final class Fixture {
         return mongoClientURI;
     }
 
+    /**
+     * Starts a {@link FakeMongoServer} on the host and port of the test URI when {@code -Dorg.mongodb.test.fakeServer=true}, so
+     * that the tests measure the driver alone, e.g.
+     * {@code -Dorg.mongodb.test.uri=mongodb://localhost:27117 -Dorg.mongodb.test.fakeServer=true}.
+     */
+    private static synchronized void startFakeServerIfRequested() {
+        if (fakeServer == null && Boolean.getBoolean(FAKE_SERVER_SYSTEM_PROPERTY_NAME)) {
+            InetSocketAddress address;
+            try {
+                address = new ServerAddress(getMongoClientURI().getHosts().get(0)).getSocketAddress();
+            } catch (UnknownHostException e) {
+                throw new IllegalArgumentException("Invalid Mongo URI: " + getMongoClientURI().getURI(), e);
+            }
+            try {
+                fakeServer = new FakeMongoServer(address);
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to start the fake server on " + address, e);
+            }
+        }
+    }
+
     public static MongoClientOptions getOptions() {
         return getMongoClientURI().getOptions();
     }
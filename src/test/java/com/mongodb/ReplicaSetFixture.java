@@ -0,0 +1,366 @@
+/*
+ * Copyright (c) 2008-2014 MongoDB, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mongodb;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts a replica set of three local {@code mongod} processes, on consecutive ports on 127.0.0.1, each with its own data
+ * directory under the temporary directory, and tears them down and deletes their data on {@link #close()}.  Members can be killed
+ * and restarted in between, from any thread, to measure failover.
+ *
+ * <pre>
+ *    ReplicaSetFixture replicaSet = ReplicaSetFixture.start();
+ *    try {
+ *        MongoClient mongoClient = replicaSet.createMongoClient(MongoClientOptions.builder());
+ *        ...
+ *    } finally {
+ *        replicaSet.close();
+ *    }
+ * </pre>
+ *
+ * <p>The {@code mongod} on the path is used unless another is given with {@code -Dorg.mongodb.test.mongod=/path/to/mongod},
+ * and the first port is 27217 unless given with {@code -Dorg.mongodb.test.replicaSet.port=27217}.  Each member's output goes to
+ * a {@code mongod.log} in its data directory.</p>
+ */
+public final class ReplicaSetFixture implements Closeable {
+    public static final String MONGOD_SYSTEM_PROPERTY_NAME = "org.mongodb.test.mongod";
+    public static final String PORT_SYSTEM_PROPERTY_NAME = "org.mongodb.test.replicaSet.port";
+    public static final int NUMBER_OF_MEMBERS = 3;
+    private static final String DEFAULT_MONGOD = "mongod";
+    // the address each member binds to, and the host name it is known by in the replica set configuration and to clients
+    private static final String HOST = "127.0.0.1";
+    private static final int DEFAULT_PORT = 27217;
+    private static final String SET_NAME = "perf";
+    private static final int OPLOG_SIZE_MEGABYTES = 64;
+    private static final long STARTUP_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(2);
+    private static final long POLL_INTERVAL_MILLIS = 100;
+    private static final int LOG_LINES_ON_FAILURE = 20;
+    private static final int PRIMARY = 1;
+    private static final int SECONDARY = 2;
+
+    private final String mongod;
+    private final Path dataDirectory;
+    private final List<ServerAddress> members = new ArrayList<ServerAddress>();
+    private final Process[] processes = new Process[NUMBER_OF_MEMBERS];
+
+    private ReplicaSetFixture(final String mongod, final int firstPort) throws IOException {
+        this.mongod = mongod;
+        this.dataDirectory = Files.createTempDirectory("mongodb-perf-replica-set");
+        for (int i = 0; i < NUMBER_OF_MEMBERS; i++) {
+            members.add(new ServerAddress(HOST, firstPort + i));
+        }
+    }
+
+    /**
+     * @return true if {@code mongod} can be run, so that {@link #start()} has a chance of succeeding
+     */
+    public static boolean isMongodAvailable() {
+        try {
+            Process process = new ProcessBuilder(getMongod(), "--version").redirectErrorStream(true).start();
+            process.getInputStream().close();
+            return process.waitFor() == 0;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Starts the members, initiates the replica set and waits until it has a primary and two secondaries.
+     *
+     * @return the running replica set
+     * @throws IOException if a member can't be started
+     */
+    public static ReplicaSetFixture start() throws IOException {
+        ReplicaSetFixture replicaSet = new ReplicaSetFixture(getMongod(), getFirstPort());
+        try {
+            for (int i = 0; i < NUMBER_OF_MEMBERS; i++) {
+                replicaSet.startMember(i);
+            }
+            replicaSet.initiate();
+            replicaSet.awaitHealthy();
+            return replicaSet;
+        } catch (IOException e) {
+            replicaSet.close();
+            throw e;
+        } catch (RuntimeException e) {
+            replicaSet.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the addresses of the members, in the order of their {@code _id}s in the replica set configuration
+     */
+    public List<ServerAddress> getMembers() {
+        return members;
+    }
+
+    /**
+     * Creates a new client with the members as its seed list.  The caller is responsible for closing it.
+     *
+     * @param builder the options to use
+     * @return a new client
+     */
+    public MongoClient createMongoClient(final MongoClientOptions.Builder builder) {
+        return new MongoClient(members, builder.build());
+    }
+
+    /**
+     * @return the index of the member that is primary, or -1 if there isn't one at the moment
+     */
+    public int getPrimaryIndex() {
+        for (int i = 0; i < NUMBER_OF_MEMBERS; i++) {
+            try {
+                if (isRunning(i) && Boolean.TRUE.equals(command(i, "ismaster").get("ismaster"))) {
+                    return i;
+                }
+            } catch (MongoException e) {
+                // not answering, so not the primary as far as a client can tell
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Kills a member outright, without letting it shut down cleanly, where the JVM supports that.
+     *
+     * @param index the index of the member
+     */
+    public synchronized void killMember(final int index) {
+        Process process = processes[index];
+        if (process == null) {
+            return;
+        }
+        try {
+            // Process.destroyForcibly is Java 8, and the tests are compiled for Java 7
+            Process.class.getMethod("destroyForcibly").invoke(process);
+        } catch (ReflectiveOperationException e) {
+            process.destroy();
+        }
+        try {
+            process.waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        processes[index] = null;
+    }
+
+    /**
+     * Starts a member that was killed, on its old port and data, and waits until it has rejoined as a secondary.
+     *
+     * @param index the index of the member
+     * @throws IOException if the member can't be started
+     */
+    public void restartMember(final int index) throws IOException {
+        startMember(index);
+        awaitHealthy();
+    }
+
+    /**
+     * Waits until every running member is either the primary or a secondary, and one of them is the primary.
+     */
+    public void awaitHealthy() {
+        long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT_MILLIS;
+        while (!isHealthy()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("Replica set " + SET_NAME + " on " + members + " did not become healthy within "
+                                                + STARTUP_TIMEOUT_MILLIS + " millis");
+            }
+            sleep(POLL_INTERVAL_MILLIS);
+        }
+    }
+
+    @Override
+    public void close() {
+        for (int i = 0; i < NUMBER_OF_MEMBERS; i++) {
+            killMember(i);
+        }
+        try {
+            Files.walkFileTree(dataDirectory, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(final Path file, final BasicFileAttributes attributes) throws IOException {
+                    Files.delete(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(final Path directory, final IOException e) throws IOException {
+                    Files.delete(directory);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            System.out.printf("Unable to delete %s: %s%n", dataDirectory, e.getMessage());
+        }
+    }
+
+    private synchronized void startMember(final int index) throws IOException {
+        ServerAddress member = members.get(index);
+        File memberDirectory = getLog(index).getParent().toFile();
+        if (!memberDirectory.isDirectory() && !memberDirectory.mkdirs()) {
+            throw new IOException("Unable to create " + memberDirectory);
+        }
+        processes[index] = new ProcessBuilder(mongod,
+                                              "--replSet", SET_NAME,
+                                              "--port", Integer.toString(member.getPort()),
+                                              "--bind_ip", HOST,
+                                              "--dbpath", memberDirectory.getAbsolutePath(),
+                                              "--oplogSize", Integer.toString(OPLOG_SIZE_MEGABYTES))
+                           .redirectErrorStream(true)
+                           .redirectOutput(getLog(index).toFile())
+                           .start();
+        awaitListening(index);
+    }
+
+    private void awaitListening(final int index) throws IOException {
+        long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT_MILLIS;
+        while (true) {
+            if (!isRunning(index)) {
+                // the data directory is deleted when start fails, so the end of the log goes in the message
+                throw new IOException(mongod + " exited with " + processes[index].exitValue() + " on starting member "
+                                      + members.get(index) + ":\n" + tail(getLog(index)));
+            }
+            try {
+                new Socket(members.get(index).getHost(), members.get(index).getPort()).close();
+                return;
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IOException("Member " + members.get(index) + " is not listening after " + STARTUP_TIMEOUT_MILLIS
+                                          + " millis", e);
+                }
+            }
+            sleep(POLL_INTERVAL_MILLIS);
+        }
+    }
+
+    private Path getLog(final int index) {
+        return dataDirectory.resolve("member" + index).resolve("mongod.log");
+    }
+
+    private static String tail(final Path log) throws IOException {
+        List<String> lines = Files.readAllLines(log, Charset.forName("UTF-8"));
+        StringBuilder tail = new StringBuilder();
+        for (String line : lines.subList(Math.max(0, lines.size() - LOG_LINES_ON_FAILURE), lines.size())) {
+            tail.append(line).append('\n');
+        }
+        return tail.toString();
+    }
+
+    private void initiate() {
+        BasicDBList configMembers = new BasicDBList();
+        for (int i = 0; i < NUMBER_OF_MEMBERS; i++) {
+            configMembers.add(new BasicDBObject("_id", i).append("host", members.get(i).toString()));
+        }
+        CommandResult result = command(0, new BasicDBObject("replSetInitiate", new BasicDBObject("_id", SET_NAME)
+                                                                               .append("members", configMembers)));
+        result.throwOnError();
+    }
+
+    private boolean isHealthy() {
+        int primaries = 0;
+        for (int i = 0; i < NUMBER_OF_MEMBERS; i++) {
+            if (!isRunning(i)) {
+                continue;
+            }
+            Object state;
+            try {
+                state = command(i, "replSetGetStatus").get("myState");
+            } catch (MongoException e) {
+                return false;
+            }
+            if (!(state instanceof Number)) {
+                return false;
+            }
+            int myState = ((Number) state).intValue();
+            if (myState == PRIMARY) {
+                primaries++;
+            } else if (myState != SECONDARY) {
+                return false;
+            }
+        }
+        return primaries == 1;
+    }
+
+    private synchronized boolean isRunning(final int index) {
+        if (processes[index] == null) {
+            return false;
+        }
+        try {
+            processes[index].exitValue();
+            return false;
+        } catch (IllegalThreadStateException e) {
+            return true;
+        }
+    }
+
+    private CommandResult command(final int index, final String command) {
+        return command(index, new BasicDBObject(command, 1));
+    }
+
+    // talks to the one member directly, whatever its state, rather than to the replica set
+    private CommandResult command(final int index, final DBObject command) {
+        MongoClient mongoClient = new MongoClient(members.get(index), MongoClientOptions.builder()
+                                                                                        .connectTimeout(1000)
+                                                                                        .socketTimeout(10000)
+                                                                                        .build());
+        try {
+            return mongoClient.getDB("admin").command(command, ReadPreference.primaryPreferred());
+        } finally {
+            mongoClient.close();
+        }
+    }
+
+    private static String getMongod() {
+        String mongodProperty = System.getProperty(MONGOD_SYSTEM_PROPERTY_NAME);
+        return mongodProperty == null || mongodProperty.length() == 0 ? DEFAULT_MONGOD : mongodProperty;
+    }
+
+    private static int getFirstPort() {
+        String portProperty = System.getProperty(PORT_SYSTEM_PROPERTY_NAME);
+        return portProperty == null || portProperty.length() == 0 ? DEFAULT_PORT : Integer.parseInt(portProperty);
+    }
+
+    private static void sleep(final long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the replica set", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ReplicaSetFixture{" + SET_NAME + " " + members + "}";
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright (c) 2008-2014 MongoDB, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mongodb.perf;
+
+import com.mongodb.AggregationOptions;
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.Cursor;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.Fixture;
+import com.mongodb.MongoException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs representative aggregation pipelines, {@code $match} and {@code $group}, {@code $sort} and {@code $limit}, {@code $unwind}
+ * over an array and {@code $project}, over collections of increasing size.  Each pipeline is run with its results returned inline,
+ * in a single reply, and through a cursor, with a batch size and {@code allowDiskUse}.  The table at the end gives documents
+ * aggregated per second, the number of results and the client's heap high-water mark, which is where inline results, all held at
+ * once, and cursors, a batch at a time, differ.
+ *
+ * <p>Inline results are a single document, so a pipeline whose results come to more than 16MB fails inline and is reported as
+ * such.  The collection sizes can be set with {@code -Dorg.mongodb.test.aggregation.sizes=10000,100000}, and are run smallest
+ * first.</p>
+ */
+public class AggregationPerformanceTest {
+    public static final String COLLECTION_SIZES_SYSTEM_PROPERTY_NAME = "org.mongodb.test.aggregation.sizes";
+    private static final String DEFAULT_COLLECTION_SIZES = "10000,100000";
+    private static final int NUMBER_OF_CATEGORIES = 100;
+    private static final int NUMBER_OF_PRICES = 1000;
+    private static final int NUMBER_OF_TAGS = 5;
+    private static final int SORT_LIMIT = 100;
+    private static final int CURSOR_BATCH_SIZE = 1000;
+    private static final int MIN_DOCUMENTS_AGGREGATED = 1_000_000;
+    private static final int MIN_AGGREGATIONS = 3;
+    private static final double NUM_MILLIS_IN_SECOND = 1000;
+    private static final double BYTES_IN_MEGABYTE = 1024 * 1024;
+
+    private DB database;
+    private DBCollection collection;
+    private final List<AggregationResult> results = new ArrayList<AggregationResult>();
+    private final Map<String, SteadyStateWarmup> warmups = new HashMap<String, SteadyStateWarmup>();
+    @SuppressWarnings("PublicField")
+    public long fieldCountToAvoidOptimization;
+
+    @Before
+    public void setUp() {
+        database = Fixture.getDefaultDatabase();
+        collection = database.getCollection(this.getClass().getName());
+        collection.drop();
+    }
+
+    @After
+    public void tearDown() {
+        if (collection != null) {
+            collection.drop();
+        }
+        if (database != null) {
+            database.dropDatabase();
+        }
+    }
+
+    @Test
+    public void testAggregationPipelines() {
+        Map<String, List<DBObject>> pipelines = new LinkedHashMap<String, List<DBObject>>();
+        pipelines.put("$match $group", Arrays.<DBObject>asList(
+                new BasicDBObject("$match", new BasicDBObject("price", new BasicDBObject("$lt", NUMBER_OF_PRICES / 2))),
+                new BasicDBObject("$group", new BasicDBObject("_id", "$category")
+                                            .append("quantity", new BasicDBObject("$sum", "$quantity"))
+                                            .append("count", new BasicDBObject("$sum", 1)))));
+        pipelines.put("$sort $limit", Arrays.<DBObject>asList(new BasicDBObject("$sort", new BasicDBObject("price", -1)),
+                                                               new BasicDBObject("$limit", SORT_LIMIT)));
+        pipelines.put("$unwind", Arrays.<DBObject>asList(new BasicDBObject("$unwind", "$tags")));
+        pipelines.put("$project", Arrays.<DBObject>asList(new BasicDBObject("$project", new BasicDBObject("_id", 0)
+                                                                                         .append("name", 1)
+                                                                                         .append("price", 1))));
+
+        for (int collectionSize : getCollectionSizes()) {
+            populateCollection(collectionSize);
+            for (Map.Entry<String, List<DBObject>> pipeline : pipelines.entrySet()) {
+                for (Delivery delivery : Delivery.values()) {
+                    aggregate(pipeline.getKey(), pipeline.getValue(), delivery, collectionSize);
+                }
+            }
+        }
+        printResults();
+    }
+
+    private void aggregate(final String pipelineName, final List<DBObject> pipeline, final Delivery delivery,
+                           final int collectionSize) {
+        String name = "Aggregate " + pipelineName + " " + delivery.description;
+        try {
+            // the first, smallest, collection warms up each pipeline, so its figures aren't those of the interpreter
+            SteadyStateWarmup warmup = warmups.get(name);
+            if (warmup == null) {
+                warmup = SteadyStateWarmup.run(name, new Workload() {
+                    @Override
+                    public void execute(final int threadIndex, final int operation) {
+                        aggregateOnce(pipeline, delivery);
+                    }
+                });
+                warmups.put(name, warmup);
+            }
+            System.gc();
+            System.gc();
+
+            int numberOfAggregations = Math.max(MIN_AGGREGATIONS, MIN_DOCUMENTS_AGGREGATED / collectionSize);
+            LatencyHistogram latencies = new LatencyHistogram(name + " of " + collectionSize + " Documents");
+            long heapBeforeAggregations = AllocationMonitor.resetPeakHeapUsage();
+            long resultsPerAggregation = 0;
+            AllocationMonitor allocations = AllocationMonitor.start();
+            long startTime = System.currentTimeMillis();
+            for (int i = 0; i < numberOfAggregations; i++) {
+                long operationStart = System.nanoTime();
+                resultsPerAggregation = aggregateOnce(pipeline, delivery);
+                latencies.recordSince(operationStart);
+            }
+            long timeTaken = System.currentTimeMillis() - startTime;
+            long peakHeap = AllocationMonitor.getPeakHeapUsage();
+            allocations.stop(numberOfAggregations);
+
+            AggregationResult result = new AggregationResult(pipelineName, delivery, collectionSize,
+                                                             (long) numberOfAggregations * collectionSize, resultsPerAggregation,
+                                                             timeTaken, heapBeforeAggregations, peakHeap);
+            results.add(result);
+            latencies.report();
+            allocations.report(latencies.getName());
+            new BenchmarkRecord(name, "category, price, quantity, name and " + NUMBER_OF_TAGS + " tags")
+                    .parameter("pipeline", pipeline.toString())
+                    .parameter("delivery", delivery.description)
+                    .parameter("collectionSize", collectionSize)
+                    .operations(numberOfAggregations, timeTaken)
+                    .latencies(latencies)
+                    .allocations(allocations)
+                    .warmup(warmup)
+                    .metric("documentsPerSecond", result.getDocumentsPerSecond())
+                    .metric("resultsPerAggregation", resultsPerAggregation)
+                    .metric("heapBeforeAggregationsBytes", heapBeforeAggregations)
+                    .metric("peakHeapBytes", peakHeap)
+                    .write();
+        } catch (MongoException e) {
+            System.out.printf("%s of %d Documents failed: %s%n", name, collectionSize, e.getMessage());
+            results.add(new AggregationResult(pipelineName, delivery, collectionSize, 0, 0, 0, 0, 0));
+        }
+    }
+
+    /**
+     * @return the number of results
+     */
+    private long aggregateOnce(final List<DBObject> pipeline, final Delivery delivery) {
+        long numberOfResults = 0;
+        if (delivery == Delivery.INLINE) {
+            for (DBObject result : collection.aggregate(pipeline).results()) {
+                fieldCountToAvoidOptimization += result.keySet().size();
+                numberOfResults++;
+            }
+        } else {
+            Cursor cursor = collection.aggregate(pipeline, AggregationOptions.builder()
+                                                                             .outputMode(AggregationOptions.OutputMode.CURSOR)
+                                                                             .batchSize(CURSOR_BATCH_SIZE)
+                                                                             .allowDiskUse(true)
+                                                                             .build());
+            try {
+                while (cursor.hasNext()) {
+                    fieldCountToAvoidOptimization += cursor.next().keySet().size();
+                    numberOfResults++;
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return numberOfResults;
+    }
+
+    private void populateCollection(final int numberOfDocuments) {
+        collection.drop();
+        new BulkLoader(collection).load(numberOfDocuments, new BulkLoader.DocumentSource() {
+            @Override
+            public DBObject createDocument(final int id) {
+                BasicDBList tags = new BasicDBList();
+                for (int tag = 0; tag < NUMBER_OF_TAGS; tag++) {
+                    tags.add("tag" + (id + tag) % NUMBER_OF_CATEGORIES);
+                }
+                return new BasicDBObject("_id", id)
+                       .append("category", id % NUMBER_OF_CATEGORIES)
+                       .append("price", id % NUMBER_OF_PRICES)
+                       .append("quantity", id % 10 + 1)
+                       .append("name", "Product " + id)
+                       .append("tags", tags);
+            }
+        });
+    }
+
+    private void printResults() {
+        System.out.printf("Test,Pipeline,Delivery,Collection Size,Docs per Second,Results per Aggregation,Time Taken Millis,"
+                          + "Heap Before MB,Peak Heap MB, %n");
+        for (AggregationResult result : results) {
+            if (result.documents == 0) {
+                System.out.printf("Aggregate,%s,%s,%d,failed,,,,, %n", result.pipeline, result.delivery.description,
+                                  result.collectionSize);
+            } else {
+                System.out.printf("Aggregate,%s,%s,%d,%.0f,%d,%d,%.1f,%.1f, %n", result.pipeline, result.delivery.description,
+                                  result.collectionSize, result.getDocumentsPerSecond(), result.resultsPerAggregation,
+                                  result.timeTaken, result.heapBeforeAggregations / BYTES_IN_MEGABYTE,
+                                  result.peakHeap / BYTES_IN_MEGABYTE);
+            }
+        }
+    }
+
+    static List<Integer> getCollectionSizes() {
+        String sizesProperty = System.getProperty(COLLECTION_SIZES_SYSTEM_PROPERTY_NAME);
+        String sizes = sizesProperty == null || sizesProperty.length() == 0 ? DEFAULT_COLLECTION_SIZES : sizesProperty;
+        List<Integer> collectionSizes = new ArrayList<Integer>();
+        for (String size : sizes.split(",")) {
+            collectionSizes.add(Integer.parseInt(size.trim()));
+        }
+        Collections.sort(collectionSizes);
+        return collectionSizes;
+    }
+
+    private enum Delivery {
+        INLINE("inline"),
+        CURSOR("cursor batchSize " + CURSOR_BATCH_SIZE + " allowDiskUse");
+
+        private final String description;
+
+        Delivery(final String description) {
+            this.description = description;
+        }
+    }
+
+    private static final class AggregationResult {
+        private final String pipeline;
+        private final Delivery delivery;
+        private final int collectionSize;
+        private final long documents;
+        private final long resultsPerAggregation;
+        private final long timeTaken;
+        private final long heapBeforeAggregations;
+        private final long peakHeap;
+
+        private AggregationResult(final String pipeline, final Delivery delivery, final int collectionSize, final long documents,
+                                  final long resultsPerAggregation, final long timeTaken, final long heapBeforeAggregations,
+                                  final long peakHeap) {
+            this.pipeline = pipeline;
+            this.delivery = delivery;
+            this.collectionSize = collectionSize;
+            this.documents = documents;
+            this.resultsPerAggregation = resultsPerAggregation;
+            this.timeTaken = timeTaken;
+            this.heapBeforeAggregations = heapBeforeAggregations;
+            this.peakHeap = peakHeap;
+        }
+
+        double getDocumentsPerSecond() {
+            return documents * NUM_MILLIS_IN_SECOND / Math.max(1, timeTaken);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2008-2014 MongoDB, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mongodb.perf;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the garbage a benchmark creates over its measured window: the bytes allocated per operation, from the per-thread
+ * allocation counters of HotSpot's {@code ThreadMXBean}, the number of collections and the time spent in them, and the change
+ * in live heap.  Start it just before the timed loop and stop it just after:
+ *
+ * <pre>
+ *    AllocationMonitor allocations = AllocationMonitor.start();
+ *    // timed loop
+ *    allocations.stop(NUMBER_OF_OPERATIONS);
+ *    allocations.report(latencies.getName());
+ * </pre>
+ *
+ * <p>Only the starting thread's allocations are counted, so work done on other threads must be added with
+ * {@link #addAllocatedBytes(long)}, using {@link #getCurrentThreadAllocatedBytes()} on those threads.  The live heap is measured
+ * after a full collection both when the monitor starts and when it stops, so it shows what the measured operations left behind
+ * rather than garbage that had yet to be collected.  GC time is the accumulated collection time reported by the collectors, which
+ * for the stop-the-world collectors is their pause time.</p>
+ */
+public final class AllocationMonitor {
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+    private static final MemoryMXBean MEMORY_MX_BEAN = ManagementFactory.getMemoryMXBean();
+    private static final double BYTES_IN_KILOBYTE = 1024;
+
+    private final long threadId = Thread.currentThread().getId();
+    private final long startThreadAllocatedBytes;
+    private final long startGcCount;
+    private final long startGcMillis;
+    private final long startHeapUsed;
+    private final AtomicLong otherThreadsAllocatedBytes = new AtomicLong();
+    private long allocatedBytes = -1;
+    private long gcCount;
+    private long gcMillis;
+    private long liveHeapDeltaBytes;
+    private long operations;
+
+    private AllocationMonitor() {
+        // collected first, as the heap is when the monitor stops, so the two readings compare live heap with live heap
+        System.gc();
+        System.gc();
+        startHeapUsed = MEMORY_MX_BEAN.getHeapMemoryUsage().getUsed();
+        startGcCount = getTotalGcCount();
+        startGcMillis = getTotalGcMillis();
+        startThreadAllocatedBytes = getThreadAllocatedBytes(threadId);
+    }
+
+    /**
+     * Starts measuring on the current thread, after forcing a full collection to measure the live heap.  The collections it forces
+     * aren't counted.
+     *
+     * @return the running monitor
+     */
+    public static AllocationMonitor start() {
+        return new AllocationMonitor();
+    }
+
+    /**
+     * Adds bytes allocated on another thread, e.g. by a worker of a {@link ConcurrentLoadRunner}.
+     *
+     * @param bytes the bytes allocated, or a negative number if they couldn't be measured
+     */
+    public void addAllocatedBytes(final long bytes) {
+        if (bytes < 0) {
+            otherThreadsAllocatedBytes.set(Long.MIN_VALUE);
+        } else {
+            otherThreadsAllocatedBytes.addAndGet(bytes);
+        }
+    }
+
+    /**
+     * Stops measuring.  This must be called on the thread that started the monitor, and forces a full collection to measure the
+     * live heap.
+     *
+     * @param numberOfOperations the number of operations performed while the monitor was running
+     */
+    public void stop(final long numberOfOperations) {
+        if (Thread.currentThread().getId() != threadId) {
+            throw new IllegalStateException("An AllocationMonitor must be stopped on the thread that started it");
+        }
+        long endThreadAllocatedBytes = getThreadAllocatedBytes(threadId);
+        gcCount = getTotalGcCount() - startGcCount;
+        gcMillis = getTotalGcMillis() - startGcMillis;
+        operations = numberOfOperations;
+        if (startThreadAllocatedBytes >= 0 && endThreadAllocatedBytes >= 0 && otherThreadsAllocatedBytes.get() >= 0) {
+            allocatedBytes = endThreadAllocatedBytes - startThreadAllocatedBytes + otherThreadsAllocatedBytes.get();
+        }
+        System.gc();
+        System.gc();
+        liveHeapDeltaBytes = MEMORY_MX_BEAN.getHeapMemoryUsage().getUsed() - startHeapUsed;
+    }
+
+    /**
+     * @return the bytes allocated while the monitor was running, or -1 if the JVM can't measure them
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * @return the bytes allocated per operation, or {@code NaN} if the JVM can't measure them
+     */
+    public double getAllocatedBytesPerOperation() {
+        return allocatedBytes < 0 || operations == 0 ? Double.NaN : (double) allocatedBytes / operations;
+    }
+
+    public long getGcCount() {
+        return gcCount;
+    }
+
+    public long getGcMillis() {
+        return gcMillis;
+    }
+
+    public long getLiveHeapDeltaBytes() {
+        return liveHeapDeltaBytes;
+    }
+
+    /**
+     * Prints a CSV summary, in the same form as the other tables.
+     *
+     * @param name the name of the test
+     */
+    public void report(final String name) {
+        System.out.printf("Test,Allocated Bytes per Op,Allocated MB,GC Count,GC Millis,Live Heap Delta KB, %n");
+        System.out.printf("%s,%.0f,%.1f,%d,%d,%.1f, %n", name, getAllocatedBytesPerOperation(),
+                          allocatedBytes < 0 ? Double.NaN : allocatedBytes / BYTES_IN_KILOBYTE / BYTES_IN_KILOBYTE,
+                          gcCount, gcMillis, liveHeapDeltaBytes / BYTES_IN_KILOBYTE);
+    }
+
+    /**
+     * Resets the peak usage of every heap memory pool.
+     *
+     * @return the heap currently in use, in bytes
+     */
+    public static long resetPeakHeapUsage() {
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                pool.resetPeakUsage();
+                used += pool.getUsage().getUsed();
+            }
+        }
+        return used;
+    }
+
+    /**
+     * @return the sum of the peak usage of every heap memory pool since the last reset, in bytes.  The pools don't necessarily
+     * peak at the same moment, so this is an upper bound on the heap high-water mark.
+     */
+    public static long getPeakHeapUsage() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    /**
+     * @return the bytes allocated so far by the current thread, or -1 if the JVM can't measure them, e.g. on a virtual thread
+     */
+    public static long getCurrentThreadAllocatedBytes() {
+        return getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static long getThreadAllocatedBytes(final long threadId) {
+        if (THREAD_MX_BEAN instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) THREAD_MX_BEAN;
+            if (threadMXBean.isThreadAllocatedMemorySupported() && threadMXBean.isThreadAllocatedMemoryEnabled()) {
+                return threadMXBean.getThreadAllocatedBytes(threadId);
+            }
+        }
+        return -1;
+    }
+
+    private static long getTotalGcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long getTotalGcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, collector.getCollectionTime());
+        }
+        return millis;
+    }
+}
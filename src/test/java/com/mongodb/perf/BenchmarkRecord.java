@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2008-2014 MongoDB, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mongodb.perf;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBObject;
+import com.mongodb.Fixture;
+
+import javax.xml.bind.DatatypeConverter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The machine-readable result of one measured run of a performance test, written to the results store by {@link #write()}.
+ *
+ * <p>A record is identified for comparison by its test name, document shape, thread count and any {@link #parameter}s; the
+ * environment it ran in (driver, JVM and server versions) is recorded alongside.  The server version is that of the
+ * {@code Fixture}'s server unless a test that measures another server gives it with {@link #serverVersion}.</p>
+ */
+public final class BenchmarkRecord {
+    static final String TEST = "test";
+    static final String DOCUMENT_SHAPE = "documentShape";
+    static final String THREADS = "threads";
+    static final String PARAMETERS = "parameters";
+    static final String METRICS = "metrics";
+    static final String DRIVER_VERSION = "driverVersion";
+    static final String SERVER_VERSION = "serverVersion";
+    static final String JAVA_VERSION = "javaVersion";
+    static final String OPERATIONS = "operations";
+    static final String ELAPSED_MILLIS = "elapsedMillis";
+    static final String OPS_PER_SECOND = "opsPerSecond";
+    static final String LATENCY_MICROS = "latencyMicros";
+    static final String THROUGHPUT_SAMPLES = "throughputSamples";
+    static final String THREAD_THROUGHPUT = "threadThroughput";
+    static final String MEAN_LATENCY_MICROS_SAMPLES = "meanLatencyMicrosSamples";
+    static final String HISTOGRAM = "histogram";
+
+    private final BasicDBObject document = new BasicDBObject();
+    private final BasicDBObject parameters = new BasicDBObject();
+    private final BasicDBObject metrics = new BasicDBObject();
+
+    /**
+     * @param test          the name of the test, as printed in its CSV output
+     * @param documentShape a short description of the documents used, e.g. "1 string field"
+     */
+    public BenchmarkRecord(final String test, final String documentShape) {
+        document.append(TEST, test)
+                .append(DOCUMENT_SHAPE, documentShape)
+                .append(THREADS, 1)
+                .append(PARAMETERS, parameters)
+                .append(METRICS, metrics)
+                .append("timestamp", new Date())
+                .append(DRIVER_VERSION, Fixture.getDriverVersion())
+                .append(JAVA_VERSION, System.getProperty("java.version"))
+                .append("jvm", System.getProperty("java.vm.name") + " " + System.getProperty("java.vm.version"))
+                .append("os", System.getProperty("os.name") + " " + System.getProperty("os.version"))
+                .append("availableProcessors", Runtime.getRuntime().availableProcessors());
+    }
+
+    public BenchmarkRecord threads(final int threads) {
+        document.put(THREADS, threads);
+        return this;
+    }
+
+    /**
+     * Adds a dimension of the run beyond the document shape and thread count, e.g. the batch size.
+     *
+     * @param name  the name of the parameter
+     * @param value the value of the parameter
+     * @return this
+     */
+    public BenchmarkRecord parameter(final String name, final Object value) {
+        parameters.put(name, value);
+        return this;
+    }
+
+    /**
+     * Adds a measurement that is specific to this test, e.g. the number of times a virtual thread was pinned.
+     *
+     * @param name  the name of the metric
+     * @param value the measured value
+     * @return this
+     */
+    public BenchmarkRecord metric(final String name, final Object value) {
+        metrics.put(name, value);
+        return this;
+    }
+
+    public BenchmarkRecord operations(final long operations, final long elapsedMillis) {
+        document.append(OPERATIONS, operations)
+                .append(ELAPSED_MILLIS, elapsedMillis)
+                .append(OPS_PER_SECOND, elapsedMillis == 0 ? 0 : operations * (double) TimeUnit.SECONDS.toMillis(1) / elapsedMillis);
+        return this;
+    }
+
+    public BenchmarkRecord latencies(final LatencyHistogram latencies) {
+        document.append(LATENCY_MICROS, new BasicDBObject("mean", latencies.getMeanMicros())
+                                        .append("p50", latencies.getPercentileMicros(50))
+                                        .append("p99", latencies.getPercentileMicros(99))
+                                        .append("p999", latencies.getPercentileMicros(99.9))
+                                        .append("max", latencies.getMaxMicros()))
+                .append(THROUGHPUT_SAMPLES, latencies.getThroughputSamples())
+                .append(MEAN_LATENCY_MICROS_SAMPLES, latencies.getMeanLatencyMicrosSamples())
+                .append(HISTOGRAM, DatatypeConverter.printBase64Binary(latencies.encode()));
+        return this;
+    }
+
+    /**
+     * Records a concurrent run, with the throughput of each thread kept apart from the windowed throughput samples that runs are
+     * compared by.
+     *
+     * @param result the result of the run
+     * @return this
+     */
+    public BenchmarkRecord loadResult(final LoadResult result) {
+        threads(result.getNumberOfThreads());
+        operations(result.getTotalOperations(), result.getElapsedMillis());
+        latencies(result.getLatencies());
+        List<Double> threadThroughput = new ArrayList<Double>();
+        for (int i = 0; i < result.getNumberOfThreads(); i++) {
+            threadThroughput.add(result.getThreadOperationsPerSecond(i));
+        }
+        document.append(THREAD_THROUGHPUT, threadThroughput)
+                .append("fairness", result.getFairness());
+        return allocations(result.getAllocations());
+    }
+
+    /**
+     * Records an open loop run, with the latencies measured from when each operation was due and the service times, measured
+     * from when it was sent, as a metric.
+     *
+     * @param result the result of the run
+     * @return this
+     */
+    public BenchmarkRecord openLoopResult(final OpenLoopResult result) {
+        threads(result.getNumberOfThreads());
+        parameter("targetOpsPerSecond", result.getTargetOperationsPerSecond());
+        operations(result.getNumberOfOperations(), result.getElapsedMillis());
+        latencies(result.getResponseTimes());
+        LatencyHistogram serviceTimes = result.getServiceTimes();
+        metrics.append("serviceTimeMicros", new BasicDBObject("mean", serviceTimes.getMeanMicros())
+                                            .append("p50", serviceTimes.getPercentileMicros(50))
+                                            .append("p99", serviceTimes.getPercentileMicros(99))
+                                            .append("p999", serviceTimes.getPercentileMicros(99.9))
+                                            .append("max", serviceTimes.getMaxMicros()));
+        return this;
+    }
+
+    /**
+     * Adds the allocation and garbage collection figures of the measured window to the metrics.
+     *
+     * @param allocations a stopped monitor
+     * @return this
+     */
+    public BenchmarkRecord allocations(final AllocationMonitor allocations) {
+        double allocatedBytesPerOperation = allocations.getAllocatedBytesPerOperation();
+        metrics.append("allocatedBytesPerOp", Double.isNaN(allocatedBytesPerOperation) ? null : allocatedBytesPerOperation)
+               .append("gcCount", allocations.getGcCount())
+               .append("gcMillis", allocations.getGcMillis())
+               .append("liveHeapDeltaBytes", allocations.getLiveHeapDeltaBytes());
+        return this;
+    }
+
+    public BenchmarkRecord warmup(final SteadyStateWarmup warmup) {
+        double coefficientOfVariation = warmup.getCoefficientOfVariation();
+        metrics.append("warmupMillis", warmup.getElapsedMillis())
+               .append("warmupOperations", warmup.getOperations())
+               .append("warmupSteadyState", warmup.isSteady())
+               .append("warmupCoefficientOfVariation", Double.isNaN(coefficientOfVariation) ? null : coefficientOfVariation)
+               .append("warmupJitMillis", warmup.getCompilationMillis() < 0 ? null : warmup.getCompilationMillis());
+        return this;
+    }
+
+    /**
+     * Records the version of the server that {@code database} is on, for a test that measures a server other than the
+     * {@code Fixture}'s.
+     *
+     * @param database a database on the server under test
+     * @return this
+     */
+    public BenchmarkRecord serverVersion(final DB database) {
+        return serverVersion(Fixture.getServerVersion(database));
+    }
+
+    /**
+     * Records the version of the server under test, as read before the test, e.g. while none of its members was down.
+     *
+     * @param version the version of the server under test, e.g. 2.6.5
+     * @return this
+     */
+    public BenchmarkRecord serverVersion(final String version) {
+        document.put(SERVER_VERSION, version);
+        return this;
+    }
+
+    public DBObject toDBObject() {
+        return document;
+    }
+
+    /**
+     * Appends this record to the results store.
+     */
+    public void write() {
+        if (!document.containsField(SERVER_VERSION)) {
+            document.put(SERVER_VERSION, Fixture.getServerVersion());
+        }
+        ResultsStore.write(this);
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2008-2014 MongoDB, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mongodb.perf;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.WriteConcern;
+
+/**
+ * Seeds a collection with documents keyed {@code 0} to {@code numberOfDocuments - 1} as fast as the server will take them.  The key
+ * range is split into one contiguous partition per thread, and each thread writes its partition in unordered bulk writes, so
+ * seeding is bound by the server rather than by round trips.
+ *
+ * <pre>
+ *    new BulkLoader(collection).load(1_000_000, BulkLoader.copiesOf(new BasicDBObject("name", "String value")));
+ * </pre>
+ *
+ * <p>By default every bulk write is acknowledged.  With {@link #unacknowledged()} each thread only waits for its last bulk write,
+ * on the same connection as the rest, so the load still finishes with every document in place.  The number of threads can be set
+ * with {@code -Dorg.mongodb.test.loader.threads}.</p>
+ */
+public final class BulkLoader {
+    public static final String THREADS_SYSTEM_PROPERTY_NAME = "org.mongodb.test.loader.threads";
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+
+    private final DBCollection collection;
+    private int numberOfThreads = Integer.getInteger(THREADS_SYSTEM_PROPERTY_NAME, Runtime.getRuntime().availableProcessors());
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private boolean acknowledged = true;
+
+    public BulkLoader(final DBCollection collection) {
+        this.collection = collection;
+    }
+
+    /**
+     * @param document the document to copy
+     * @return a source of shallow copies of the document, each with its key as its {@code _id}
+     */
+    public static DocumentSource copiesOf(final DBObject document) {
+        return new DocumentSource() {
+            @Override
+            public DBObject createDocument(final int id) {
+                BasicDBObject copy = new BasicDBObject("_id", id);
+                for (String key : document.keySet()) {
+                    if (!key.equals("_id")) {
+                        copy.put(key, document.get(key));
+                    }
+                }
+                return copy;
+            }
+        };
+    }
+
+    public BulkLoader threads(final int threads) {
+        numberOfThreads = threads;
+        return this;
+    }
+
+    public BulkLoader batchSize(final int numberOfDocuments) {
+        batchSize = numberOfDocuments;
+        return this;
+    }
+
+    /**
+     * Only waits for the last bulk write of each thread.
+     *
+     * @return this
+     */
+    public BulkLoader unacknowledged() {
+        acknowledged = false;
+        return this;
+    }
+
+    /**
+     * Inserts the documents and prints the load throughput.  The collection is not dropped first.
+     *
+     * @param numberOfDocuments the number of documents to insert
+     * @param documents         creates the document for each key
+     * @return the result of the load, where each operation is one bulk write
+     * @throws IllegalStateException if any write failed, or the collection ends up with fewer documents than were loaded
+     */
+    public LoadResult load(final int numberOfDocuments, final DocumentSource documents) {
+        final int threads = Math.max(1, Math.min(numberOfThreads, numberOfDocuments));
+        int largestPartition = (numberOfDocuments + threads - 1) / threads;
+        int batchesPerThread = (largestPartition + batchSize - 1) / batchSize;
+        long countBefore = collection.count();
+
+        Workload load = new Workload() {
+            @Override
+            public void execute(final int threadIndex, final int operation) {
+                int partitionEnd = partitionStart(threadIndex + 1, threads, numberOfDocuments);
+                int batchStart = partitionStart(threadIndex, threads, numberOfDocuments) + operation * batchSize;
+                int batchEnd = Math.min(batchStart + batchSize, partitionEnd);
+                if (batchStart >= batchEnd) {
+                    return;
+                }
+                if (!acknowledged && operation == 0) {
+                    collection.getDB().requestStart();
+                }
+                boolean lastBatch = batchEnd == partitionEnd;
+                boolean failed = true;
+                try {
+                    BulkWriteOperation bulk = collection.initializeUnorderedBulkOperation();
+                    for (int id = batchStart; id < batchEnd; id++) {
+                        bulk.insert(documents.createDocument(id));
+                    }
+                    if (acknowledged) {
+                        bulk.execute();
+                    } else {
+                        bulk.execute(lastBatch ? WriteConcern.ACKNOWLEDGED : WriteConcern.UNACKNOWLEDGED);
+                    }
+                    failed = false;
+                } finally {
+                    // a failed batch ends the thread's share of the load, so it gives its connection back then too
+                    if (!acknowledged && (lastBatch || failed)) {
+                        collection.getDB().requestDone();
+                    }
+                }
+            }
+        };
+        LoadResult result = new ConcurrentLoadRunner("Load " + collection.getName(), threads).run(load, batchesPerThread);
+
+        long loaded = collection.count() - countBefore;
+        if (loaded < numberOfDocuments) {
+            throw new IllegalStateException("Only " + loaded + " of " + numberOfDocuments + " documents were loaded into "
+                                            + collection.getFullName());
+        }
+        System.out.printf("Loaded %,d documents into %s on %d threads in batches of %d in %d millis: %.0f documents per second%n",
+                          numberOfDocuments, collection.getName(), threads, batchSize, result.getElapsedMillis(),
+                          numberOfDocuments * 1000.0 / Math.max(1, result.getElapsedMillis()));
+        return result;
+    }
+
+    private static int partitionStart(final int threadIndex, final int threads, final int numberOfDocuments) {
+        return (int) ((long) numberOfDocuments * threadIndex / threads);
+    }
+
+    /**
+     * Creates the document to load for each key.  Called from several threads at once.
+     */
+    public interface DocumentSource {
+        /**
+         * @param id the key of the document, from 0 to the number of documents - 1
+         * @return a new document, which should have the key as its {@code _id}
+         */
+        DBObject createDocument(int id);
+    }
+}
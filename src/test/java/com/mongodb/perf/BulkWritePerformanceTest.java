@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2008-2014 MongoDB, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mongodb.perf;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.Fixture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the 2.12 bulk write API, ordered and unordered, with a round trip per document, for a mix of inserts, updateOnes and
+ * removes and for updates and removes on their own, at the batch sizes used by {@code InsertBatchPerformanceTest}.  Each table
+ * shows the speed-up of every batch size over the per-document loop, which issues the same writes the same way as
+ * {@code UpdatePerformanceTest} and {@code DeletePerformanceTest}, to show where batching stops paying off.
+ *
+ * <p>Note that an ordered bulk operation is sent as one write command per run of writes of the same type, so an ordered mix that
+ * alternates between inserts, updates and removes gains little from larger batches.</p>
+ */
+public class BulkWritePerformanceTest {
+    private static final int NUMBER_OF_OPERATIONS = 30_000;
+    private static final int[] BATCH_SIZES = {1, 10, 1000, 10_000};
+    private static final double NUM_MILLIS_IN_SECOND = 1000;
+    private static final DBObject UPDATE = new BasicDBObject("$set", new BasicDBObject("new field", "new value"));
+
+    private DB database;
+    private DBCollection collection;
+
+    @Before
+    public void setUp() {
+        database = Fixture.getDefaultDatabase();
+        collection = database.getCollection(this.getClass().getName());
+        collection.drop();
+    }
+
+    @After
+    public void tearDown() {
+        if (collection != null) {
+            collection.drop();
+        }
+        if (database != null) {
+            database.dropDatabase();
+        }
+    }
+
+    @Test
+    public void testPerformanceOfMixedBulkWrites() {
+        compareBulkWithPerDocumentWrites(WriteMix.MIXED);
+    }
+
+    @Test
+    public void testPerformanceOfBulkUpdateOne() {
+        compareBulkWithPerDocumentWrites(WriteMix.UPDATE_ONE);
+    }
+
+    @Test
+    public void testPerformanceOfBulkRemove() {
+        compareBulkWithPerDocumentWrites(WriteMix.REMOVE);
+    }
+
+    private void compareBulkWithPerDocumentWrites(final WriteMix mix) {
+        SteadyStateWarmup warmup = warmup(mix);
+
+        List<BenchmarkRecord> records = new ArrayList<BenchmarkRecord>();
+        List<Double> operationsPerSecond = new ArrayList<Double>();
+        List<String> modes = new ArrayList<String>();
+        List<Integer> batchSizes = new ArrayList<Integer>();
+
+        records.add(perDocument(mix, warmup));
+        modes.add("per document");
+        batchSizes.add(1);
+        for (boolean ordered : new boolean[]{true, false}) {
+            for (int batchSize : BATCH_SIZES) {
+                records.add(bulk(mix, ordered, batchSize, warmup));
+                modes.add(ordered ? "ordered" : "unordered");
+                batchSizes.add(batchSize);
+            }
+        }
+
+        System.out.printf("Test,Mode,Batch Size,Ops per Second,Time Taken Millis,Speed-up over per Document, %n");
+        for (int i = 0; i < records.size(); i++) {
+            DBObject record = records.get(i).toDBObject();
+            operationsPerSecond.add((Double) record.get(BenchmarkRecord.OPS_PER_SECOND));
+            System.out.printf("%s,%s,%d,%.0f,%d,%.2f, %n", mix.name, modes.get(i), batchSizes.get(i), operationsPerSecond.get(i),
+                              record.get(BenchmarkRecord.ELAPSED_MILLIS), operationsPerSecond.get(i) / operationsPerSecond.get(0));
+        }
+    }
+
+    private BenchmarkRecord perDocument(final WriteMix mix, final SteadyStateWarmup warmup) {
+        populateCollection();
+        LatencyHistogram latencies = new LatencyHistogram(mix.name + " Writes per Document");
+
+        AllocationMonitor allocations = AllocationMonitor.start();
+        long startTime = System.currentTimeMillis();
+        for (int i = 0; i < NUMBER_OF_OPERATIONS; i++) {
+            long operationStart = System.nanoTime();
+            write(collection, mix.writeTypeOf(i), i);
+            latencies.recordSince(operationStart);
+        }
+        long timeTaken = System.currentTimeMillis() - startTime;
+        allocations.stop(NUMBER_OF_OPERATIONS);
+
+        return report(latencies, allocations, mix, "per document", 1, timeTaken, warmup);
+    }
+
+    // the latencies are those of each execute(), i.e. of a whole batch
+    private BenchmarkRecord bulk(final WriteMix mix, final boolean ordered, final int batchSize, final SteadyStateWarmup warmup) {
+        populateCollection();
+        String mode = ordered ? "ordered" : "unordered";
+        LatencyHistogram latencies = new LatencyHistogram(mix.name + " Writes " + mode + " Bulk batchSize " + batchSize);
+
+        AllocationMonitor allocations = AllocationMonitor.start();
+        long startTime = System.currentTimeMillis();
+        for (int first = 0; first < NUMBER_OF_OPERATIONS; first += batchSize) {
+            BulkWriteOperation bulk = ordered ? collection.initializeOrderedBulkOperation()
+                                              : collection.initializeUnorderedBulkOperation();
+            for (int i = first; i < Math.min(first + batchSize, NUMBER_OF_OPERATIONS); i++) {
+                add(bulk, mix.writeTypeOf(i), i);
+            }
+            long operationStart = System.nanoTime();
+            bulk.execute();
+            latencies.recordSince(operationStart);
+        }
+        long timeTaken = System.currentTimeMillis() - startTime;
+        allocations.stop(NUMBER_OF_OPERATIONS);
+
+        return report(latencies, allocations, mix, mode, batchSize, timeTaken, warmup);
+    }
+
+    private BenchmarkRecord report(final LatencyHistogram latencies, final AllocationMonitor allocations, final WriteMix mix,
+                                   final String mode, final int batchSize, final long timeTaken, final SteadyStateWarmup warmup) {
+        System.out.printf("Time taken: %d millis\n", timeTaken);
+        System.out.printf("Test took: %,.3f seconds\n", timeTaken / NUM_MILLIS_IN_SECOND);
+        latencies.report();
+        allocations.report(latencies.getName());
+        BenchmarkRecord record = new BenchmarkRecord(mix.name + " Bulk Writes", "1 string field")
+                                 .parameter("mode", mode)
+                                 .parameter("batchSize", batchSize)
+                                 .operations(NUMBER_OF_OPERATIONS, timeTaken)
+                                 .latencies(latencies)
+                                 .allocations(allocations)
+                                 .warmup(warmup);
+        record.write();
+        return record;
+    }
+
+    // each operation writes to a document of its own, which it saves first so that there is one to update or remove, in turn as a
+    // round trip of its own, in an ordered bulk write and in an unordered one
+    private SteadyStateWarmup warmup(final WriteMix mix) {
+        return SteadyStateWarmup.onScratchCollection(mix.name + " Bulk Writes", collection,
+                                                     new SteadyStateWarmup.ScratchCollectionWorkload() {
+            @Override
+            public void execute(final DBCollection scratchCollection, final int operation) {
+                scratchCollection.save(new BasicDBObject("_id", operation).append("name", "String value"));
+                if (operation % 3 == 0) {
+                    write(scratchCollection, mix.writeTypeOf(operation), operation);
+                } else {
+                    BulkWriteOperation bulk = operation % 3 == 1 ? scratchCollection.initializeOrderedBulkOperation()
+                                                                 : scratchCollection.initializeUnorderedBulkOperation();
+                    add(bulk, mix.writeTypeOf(operation), operation);
+                    bulk.execute();
+                }
+            }
+        });
+    }
+
+    private static void write(final DBCollection target, final WriteType writeType, final int i) {
+        switch (writeType) {
+            case INSERT:
+                target.insert(newDocument(i));
+                break;
+            case UPDATE_ONE:
+                target.update(new BasicDBObject("_id", i), UPDATE);
+                break;
+            case REMOVE:
+                target.remove(new BasicDBObject("_id", i));
+                break;
+            default:
+                throw new UnsupportedOperationException(writeType.toString());
+        }
+    }
+
+    private static void add(final BulkWriteOperation bulk, final WriteType writeType, final int i) {
+        switch (writeType) {
+            case INSERT:
+                bulk.insert(newDocument(i));
+                break;
+            case UPDATE_ONE:
+                bulk.find(new BasicDBObject("_id", i)).updateOne(UPDATE);
+                break;
+            case REMOVE:
+                bulk.find(new BasicDBObject("_id", i)).remove();
+                break;
+            default:
+                throw new UnsupportedOperationException(writeType.toString());
+        }
+    }
+
+    // documents 0 to NUMBER_OF_OPERATIONS - 1 exist, so operation i can update or remove document i and insert a new one
+    private void populateCollection() {
+        collection.drop();
+        new BulkLoader(collection).load(NUMBER_OF_OPERATIONS, BulkLoader.copiesOf(new BasicDBObject("name", "String value")));
+        System.gc();
+        System.gc();
+    }
+
+    private static DBObject newDocument(final int operation) {
+        return new BasicDBObject("_id", NUMBER_OF_OPERATIONS + operation).append("name", "String value");
+    }
+
+    private enum WriteType {
+        INSERT, UPDATE_ONE, REMOVE
+    }
+
+    private enum WriteMix {
+        MIXED("Mixed") {
+            @Override
+            WriteType writeTypeOf(final int operation) {
+                return WriteType.values()[operation % WriteType.values().length];
+            }
+        },
+        UPDATE_ONE("updateOne") {
+            @Override
+            WriteType writeTypeOf(final int operation) {
+                return WriteType.UPDATE_ONE;
+            }
+        },
+        REMOVE("remove") {
+            @Override
+            WriteType writeTypeOf(final int operation) {
+                return WriteType.REMOVE;
+            }
+        };
+
+        private final String name;
+
+        WriteMix(final String name) {
+            this.name = name;
+        }
+
+        abstract WriteType writeTypeOf(int operation);
+    }
+}
@@ -9,6 +9,8 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import static java.lang.String.format;
+
 public class CSharpQueryPerformanceTest {
     private static final int NUMBER_OF_OPERATIONS = 10000;
     private static final double NUM_MILLIS_IN_SECOND = 1000;
@@ -33,16 +35,15 @@ public class CSharpQueryPerformanceTest {
         }
     }
 
-    private void warmup(int numberOfRuns, final DBObject document) {
-        DBObject one = null;
-        for (int i = 0; i < numberOfRuns; i++) {
-            document.removeField("_id");
-            collection.insert(document);
-            one = collection.find().one();
-        }
-        System.out.println(one);
-        System.gc();
-        System.gc();
+    private SteadyStateWarmup warmup(final DBObject document) {
+        return SteadyStateWarmup.onScratchCollection("Read", collection, new SteadyStateWarmup.ScratchCollectionWorkload() {
+            @Override
+            public void execute(final DBCollection scratchCollection, final int operation) {
+                document.removeField("_id");
+                scratchCollection.insert(document);
+                scratchCollection.find().one();
+            }
+        });
     }
 
 
@@ -50,11 +51,10 @@ public class CSharpQueryPerformanceTest {
     public void shouldReadDocuments() {
         // given
         DBObject document = new BasicDBObject("name", "String value");
-        warmup(10000, document);
-        collection.remove(new BasicDBObject());
+        SteadyStateWarmup warmup = warmup(document);
 
         // When
-        runBenchmarks(collection, 1, 1, 1);
+        runBenchmarks(collection, warmup, 1, 1, 1);
 
         int iterations = 1000;
         int[] documentSizes = new int[]{1, 100, 1000};
@@ -62,16 +62,16 @@ public class CSharpQueryPerformanceTest {
             System.out.printf("%nBenchmarking documents of size: %d%n", documentSize);
             int[] numberOfDocuments = new int[]{1, 10, 100, 1000};
             for (final int number : numberOfDocuments) {
-                runBenchmarks(collection, iterations, number, documentSize);
+                runBenchmarks(collection, warmup, iterations, number, documentSize);
 
             }
         }
     }
 
-    private static void runBenchmarks(DBCollection collection, int iterations, int numberOfDocuments,
+    private static void runBenchmarks(DBCollection collection, SteadyStateWarmup warmup, int iterations, int numberOfDocuments,
                                       int documentSize) {
         createData(collection, numberOfDocuments, documentSize);
-        runBenchmark(collection, iterations, numberOfDocuments);
+        runBenchmark(collection, warmup, iterations, numberOfDocuments);
     }
 
     private static void createData(DBCollection collection, int numberOfDocuments, int documentSize) {
@@ -79,24 +79,27 @@ public class CSharpQueryPerformanceTest {
 
         String fillerString = new String(new char[documentSize]).replace("\0", "x");
 
-        for (int id = 0; id < numberOfDocuments; id++) {
-            DBObject document = new BasicDBObject("_id", id).append("filler", fillerString);
-            collection.insert(document);
-        }
+        new BulkLoader(collection).load(numberOfDocuments, BulkLoader.copiesOf(new BasicDBObject("filler", fillerString)));
     }
 
-    private static void runBenchmark(DBCollection collection, int iterations, int numberOfDocuments) {
+    private static void runBenchmark(DBCollection collection, SteadyStateWarmup warmup, int iterations, int numberOfDocuments) {
         DBObject document = collection.find().one();
 
+        int documentSize = ((String) document.get("filler")).length();
+        LatencyHistogram latencies = new LatencyHistogram(format("Read %d documents of size %d", numberOfDocuments, documentSize));
         int totalNumberOfDocumentsRead = 0;
+        AllocationMonitor allocations = AllocationMonitor.start();
         long startTime = System.currentTimeMillis();
         for (int i = 0; i < iterations; i++) {
             for (int n = 0; n < numberOfDocuments; n++) {
+                long operationStart = System.nanoTime();
                 document = collection.find().one();
+                latencies.recordSince(operationStart);
                 totalNumberOfDocumentsRead += 1;
             }
         }
         long endTime = System.currentTimeMillis();
+        allocations.stop(totalNumberOfDocumentsRead);
         long elapsedMillis = endTime - startTime;
         double documentsPerSecond = totalNumberOfDocumentsRead / (elapsedMillis / NUM_MILLIS_IN_SECOND);
         System.out.println(document);
@@ -104,5 +107,11 @@ public class CSharpQueryPerformanceTest {
                           totalNumberOfDocumentsRead,
                           elapsedMillis,
                           documentsPerSecond);
+        latencies.report();
+        allocations.report(latencies.getName());
+        new BenchmarkRecord(latencies.getName(), format("1 filler string field of %d chars", documentSize))
+                .parameter("iterations", iterations)
+                .operations(totalNumberOfDocumentsRead, elapsedMillis).latencies(latencies).allocations(allocations)
+                .warmup(warmup).write();
     }
 }
\ No newline at end of file
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2008-2014 MongoDB, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mongodb.perf;
+
+import com.mongodb.DBEncoder;
+import com.mongodb.DBEncoderFactory;
+import com.mongodb.DefaultDBEncoder;
+import org.bson.io.OutputBuffer;
+
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An encoder factory that avoids the client-side churn of the default one.  The driver asks the factory for a new encoder for every
+ * write; this one hands each thread the same encoder every time, and that encoder keeps the UTF-8 bytes of every field name it has
+ * written, so a name that recurs in every document is only encoded once rather than a character at a time on every insert.
+ *
+ * <pre>
+ *    collection.setDBEncoderFactory(new CachingDBEncoderFactory());
+ * </pre>
+ *
+ * <p>The output buffer itself belongs to the driver's wire message, so it can't be swapped for a reused one here.</p>
+ */
+public final class CachingDBEncoderFactory implements DBEncoderFactory {
+    // names past this many are encoded as usual, so documents with generated keys can't grow the cache without bound
+    private static final int MAX_CACHED_NAMES = 10_000;
+    private static final int MAX_CACHED_NAME_LENGTH = 128;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ThreadLocal<CachingDBEncoder> encoders = new ThreadLocal<CachingDBEncoder>() {
+        @Override
+        protected CachingDBEncoder initialValue() {
+            return new CachingDBEncoder();
+        }
+    };
+
+    @Override
+    public DBEncoder create() {
+        return encoders.get();
+    }
+
+    private static final class CachingDBEncoder extends DefaultDBEncoder {
+        private final Map<String, byte[]> encodedNames = new HashMap<String, byte[]>();
+
+        // writes the type byte and name that start every element; the name is written as a C string, which the driver does a
+        // character at a time.  It is deprecated in 2.12 along with the rest of the encoder's protected API, but it is still what
+        // every put calls, and there is no other hook to override
+        @Override
+        @SuppressWarnings("deprecation")
+        protected void _put(final byte type, final String name) {
+            byte[] encoded = encodedNames.get(name);
+            if (encoded == null) {
+                if (encodedNames.size() >= MAX_CACHED_NAMES || name.length() > MAX_CACHED_NAME_LENGTH || name.indexOf('\0') >= 0) {
+                    super._put(type, name);
+                    return;
+                }
+                encoded = name.getBytes(UTF_8);
+                encodedNames.put(name, encoded);
+            }
+            OutputBuffer buffer = getOutputBuffer();
+            buffer.write(type);
+            buffer.write(encoded);
+            buffer.write(0);
+        }
+
+        @Override
+        public String toString() {
+            return "CachingDBEncoder";
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2008-2014 MongoDB, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mongodb.perf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs a {@link Workload} on a number of threads at once, all sharing the same {@code MongoClient}.  Each thread performs the
+ * same number of operations; the threads are released together and the wall-clock time is taken from the release until the last
+ * thread finishes.  The threads come from the supplied {@code ThreadFactory}, so the same workload can be run on platform or
+ * virtual threads.
+ */
+public final class ConcurrentLoadRunner {
+    public static final String THREADS_SYSTEM_PROPERTY_NAME = "org.mongodb.test.threads";
+
+    private final String name;
+    private final int numberOfThreads;
+    private final ThreadFactory threadFactory;
+
+    public ConcurrentLoadRunner(final String name, final int numberOfThreads) {
+        this(name, numberOfThreads, new NamedThreadFactory(name));
+    }
+
+    public ConcurrentLoadRunner(final String name, final int numberOfThreads, final ThreadFactory threadFactory) {
+        this.name = name;
+        this.numberOfThreads = numberOfThreads;
+        this.threadFactory = threadFactory;
+    }
+
+    /**
+     * Runs {@code operationsPerThread} operations on each thread and waits for them all to finish.
+     *
+     * @param workload            the operation to run
+     * @param operationsPerThread the number of operations each thread performs
+     * @return the result of the run
+     * @throws IllegalStateException if any thread failed
+     */
+    public LoadResult run(final Workload workload, final int operationsPerThread) {
+        final CountDownLatch ready = new CountDownLatch(numberOfThreads);
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch finished = new CountDownLatch(numberOfThreads);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final long[] threadElapsedNanos = new long[numberOfThreads];
+        final LatencyHistogram latencies = LatencyHistogram.concurrent(name + " " + numberOfThreads + " threads");
+        final AllocationMonitor allocations = AllocationMonitor.start();
+
+        List<Thread> threads = new ArrayList<Thread>(numberOfThreads);
+        for (int i = 0; i < numberOfThreads; i++) {
+            final int threadIndex = i;
+            threads.add(threadFactory.newThread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        ready.countDown();
+                        start.await();
+                        long threadStartAllocatedBytes = AllocationMonitor.getCurrentThreadAllocatedBytes();
+                        long threadStart = System.nanoTime();
+                        for (int operation = 0; operation < operationsPerThread && failure.get() == null; operation++) {
+                            long operationStart = System.nanoTime();
+                            workload.execute(threadIndex, operation);
+                            latencies.recordSince(operationStart);
+                        }
+                        threadElapsedNanos[threadIndex] = System.nanoTime() - threadStart;
+                        long threadEndAllocatedBytes = AllocationMonitor.getCurrentThreadAllocatedBytes();
+                        allocations.addAllocatedBytes(threadStartAllocatedBytes < 0 || threadEndAllocatedBytes < 0
+                                                      ? -1 : threadEndAllocatedBytes - threadStartAllocatedBytes);
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    } finally {
+                        finished.countDown();
+                    }
+                }
+            }));
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        long elapsedNanos;
+        try {
+            ready.await();
+            long startTime = System.nanoTime();
+            start.countDown();
+            finished.await();
+            elapsedNanos = System.nanoTime() - startTime;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while running " + name, e);
+        }
+        if (failure.get() != null) {
+            throw new IllegalStateException("Workload " + name + " failed", failure.get());
+        }
+        allocations.stop((long) numberOfThreads * operationsPerThread);
+
+        return new LoadResult(name, numberOfThreads, operationsPerThread, elapsedNanos, threadElapsedNanos, latencies, allocations);
+    }
+
+    /**
+     * The thread counts to sweep, taken from the comma-separated {@code org.mongodb.test.threads} system property, e.g.
+     * {@code -Dorg.mongodb.test.threads=1,8,64}.  Defaults to 1, 2, 4 ... up to twice the number of available processors.
+     *
+     * @return the thread counts in ascending order
+     */
+    public static List<Integer> getThreadCounts() {
+        List<Integer> threadCounts = new ArrayList<Integer>();
+        String threadsProperty = System.getProperty(THREADS_SYSTEM_PROPERTY_NAME);
+        if (threadsProperty != null && threadsProperty.length() != 0) {
+            for (String threads : threadsProperty.split(",")) {
+                threadCounts.add(Integer.parseInt(threads.trim()));
+            }
+            Collections.sort(threadCounts);
+            return threadCounts;
+        }
+        int maxThreads = 2 * Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads < maxThreads; threads *= 2) {
+            threadCounts.add(threads);
+        }
+        threadCounts.add(maxThreads);
+        return threadCounts;
+    }
+
+    static final class NamedThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger counter = new AtomicInteger();
+
+        NamedThreadFactory(final String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
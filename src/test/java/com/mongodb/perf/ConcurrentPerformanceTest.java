@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2008-2014 MongoDB, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mongodb.perf;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.Fixture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Runs the insert, query, update and delete workloads on an increasing number of threads sharing the {@code Fixture}
+ * {@code MongoClient}, to show how the driver and its connection pool scale.  The thread counts can be set with
+ * {@code -Dorg.mongodb.test.threads=1,2,4,...}.
+ */
+public class ConcurrentPerformanceTest {
+    private static final int OPERATIONS_PER_THREAD = 5_000;
+    private static final int NUMBER_OF_DOCUMENTS = 10_000;
+
+    private DB database;
+    private DBCollection collection;
+
+    @Before
+    public void setUp() {
+        database = Fixture.getDefaultDatabase();
+        collection = database.getCollection(this.getClass().getName());
+        collection.drop();
+    }
+
+    @After
+    public void tearDown() {
+        if (collection != null) {
+            collection.drop();
+        }
+        if (database != null) {
+            database.dropDatabase();
+        }
+    }
+
+    @Test
+    public void testScalingOfInsert() {
+        final int maxThreads = maxThreads();
+        final DBObject[] documents = new DBObject[maxThreads];
+        for (int i = 0; i < maxThreads; i++) {
+            documents[i] = new BasicDBObject("name", "String value");
+        }
+        Workload insert = new Workload() {
+            @Override
+            public void execute(final int threadIndex, final int operation) {
+                DBObject document = documents[threadIndex];
+                document.removeField("_id");
+                collection.insert(document);
+            }
+        };
+
+        List<LoadResult> results = new ArrayList<LoadResult>();
+        SteadyStateWarmup warmup = SteadyStateWarmup.onScratchCollection("Concurrent Insert", collection,
+                                                                         new SteadyStateWarmup.ScratchCollectionWorkload() {
+            @Override
+            public void execute(final DBCollection scratchCollection, final int operation) {
+                DBObject document = documents[0];
+                document.removeField("_id");
+                scratchCollection.insert(document);
+            }
+        });
+        for (int threads : ConcurrentLoadRunner.getThreadCounts()) {
+            collection.remove(new BasicDBObject());
+            results.add(new ConcurrentLoadRunner("Concurrent Insert", threads).run(insert, OPERATIONS_PER_THREAD));
+        }
+        printScalingCurve(results, warmup);
+    }
+
+    @Test
+    public void testScalingOfQuery() {
+        populateCollection(NUMBER_OF_DOCUMENTS);
+        Workload query = new Workload() {
+            @Override
+            public void execute(final int threadIndex, final int operation) {
+                if (collection.find().one() == null) {
+                    throw new IllegalStateException("Expected to find a document");
+                }
+            }
+        };
+
+        List<LoadResult> results = new ArrayList<LoadResult>();
+        SteadyStateWarmup warmup = warmup("Concurrent Query", query);
+        for (int threads : ConcurrentLoadRunner.getThreadCounts()) {
+            results.add(new ConcurrentLoadRunner("Concurrent Query", threads).run(query, OPERATIONS_PER_THREAD));
+        }
+        printScalingCurve(results, warmup);
+    }
+
+    @Test
+    public void testScalingOfUpdate() {
+        populateCollection(NUMBER_OF_DOCUMENTS);
+        // an increment, rather than a constant $set, so that every update modifies its document however often it's been hit
+        final DBObject update = new BasicDBObject("$inc", new BasicDBObject("count", 1));
+        Workload updateRandomDocument = new Workload() {
+            @Override
+            public void execute(final int threadIndex, final int operation) {
+                int id = ThreadLocalRandom.current().nextInt(NUMBER_OF_DOCUMENTS);
+                collection.update(new BasicDBObject("_id", id), update);
+            }
+        };
+
+        List<LoadResult> results = new ArrayList<LoadResult>();
+        SteadyStateWarmup warmup = warmup("Concurrent Update", updateRandomDocument);
+        for (int threads : ConcurrentLoadRunner.getThreadCounts()) {
+            results.add(new ConcurrentLoadRunner("Concurrent Update", threads).run(updateRandomDocument, OPERATIONS_PER_THREAD));
+        }
+        printScalingCurve(results, warmup);
+    }
+
+    @Test
+    public void testScalingOfDelete() {
+        // each thread deletes its own range of _ids, so every remove hits a document
+        Workload delete = new Workload() {
+            @Override
+            public void execute(final int threadIndex, final int operation) {
+                collection.remove(new BasicDBObject("_id", threadIndex * OPERATIONS_PER_THREAD + operation));
+            }
+        };
+
+        List<LoadResult> results = new ArrayList<LoadResult>();
+        // every remove has to hit a document, which the delete workload can only promise for its first pass over the _ids
+        SteadyStateWarmup warmup = SteadyStateWarmup.onScratchCollection("Concurrent Delete", collection,
+                                                                         new SteadyStateWarmup.ScratchCollectionWorkload() {
+            @Override
+            public void execute(final DBCollection scratchCollection, final int operation) {
+                scratchCollection.insert(new BasicDBObject("_id", operation).append("name", "String value"));
+                scratchCollection.remove(new BasicDBObject("_id", operation));
+            }
+        });
+        for (int threads : ConcurrentLoadRunner.getThreadCounts()) {
+            collection.remove(new BasicDBObject());
+            populateCollection(threads * OPERATIONS_PER_THREAD);
+            results.add(new ConcurrentLoadRunner("Concurrent Delete", threads).run(delete, OPERATIONS_PER_THREAD));
+        }
+        printScalingCurve(results, warmup);
+    }
+
+    private static SteadyStateWarmup warmup(final String name, final Workload workload) {
+        SteadyStateWarmup warmup = SteadyStateWarmup.run(name, workload);
+        System.gc();
+        System.gc();
+        return warmup;
+    }
+
+    private void populateCollection(final int numberOfDocuments) {
+        new BulkLoader(collection).load(numberOfDocuments, BulkLoader.copiesOf(new BasicDBObject("name", "String value")));
+    }
+
+    private static int maxThreads() {
+        List<Integer> threadCounts = ConcurrentLoadRunner.getThreadCounts();
+        return threadCounts.get(threadCounts.size() - 1);
+    }
+
+    private static void printScalingCurve(final List<LoadResult> results, final SteadyStateWarmup warmup) {
+        LoadResult baseline = results.get(0);
+        for (LoadResult result : results) {
+            result.getLatencies().report();
+            result.getAllocations().report(result.getLatencies().getName());
+            new BenchmarkRecord(result.getName(), "1 string field").loadResult(result).warmup(warmup).write();
+        }
+        System.out.printf("Test,Threads,Ops per Second,Time Taken Millis,Scaling Efficiency,Fairness,"
+                          + "Min Thread Ops per Second,Max Thread Ops per Second,Allocated Bytes per Op,GC Millis, %n");
+        for (LoadResult result : results) {
+            System.out.printf("%s,%d,%.0f,%d,%.2f,%.3f,%.0f,%.0f,%.0f,%d, %n", result.getName(), result.getNumberOfThreads(),
+                              result.getOperationsPerSecond(), result.getElapsedMillis(),
+                              result.getScalingEfficiency(baseline), result.getFairness(),
+                              result.getMinThreadOperationsPerSecond(), result.getMaxThreadOperationsPerSecond(),
+                              result.getAllocations().getAllocatedBytesPerOperation(), result.getAllocations().getGcMillis());
+        }
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2008-2014 MongoDB, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mongodb.perf;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.Fixture;
+import com.mongodb.MongoClient;
+import com.mongodb.MongoClientOptions;
+import com.mongodb.MongoException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sweeps the connection pool options, {@code connectionsPerHost}, {@code threadsAllowedToBlockForConnectionMultiplier},
+ * {@code maxWaitTime} and {@code socketKeepAlive}, under an increasing number of threads running queries by {@code _id}.  Each
+ * configuration gets its own client, built by {@link Fixture#createMongoClient} so the URI's other options still apply.
+ *
+ * <p>Every query first checks a connection out of the pool with {@code requestStart} and {@code requestEnsureConnection}, so the
+ * time spent waiting for a connection is timed apart from the query; the end to end latency covers both, and the checkouts that
+ * failed.  Checkouts refused because the wait queue is full or the wait timed out are counted rather than failing the run.  The
+ * thread counts can be set with {@code -Dorg.mongodb.test.pool.threads=1,8,32,128}.</p>
+ */
+public class ConnectionPoolPerformanceTest {
+    public static final String THREADS_SYSTEM_PROPERTY_NAME = "org.mongodb.test.pool.threads";
+    private static final String DEFAULT_THREAD_COUNTS = "1,8,32,128";
+    private static final int NUMBER_OF_DOCUMENTS = 10_000;
+    private static final int OPERATIONS_PER_THREAD = 1000;
+    private static final int DEFAULT_MULTIPLIER = 5;
+    private static final int DEFAULT_MAX_WAIT_MILLIS = 120_000;
+    private static final int SHORT_MAX_WAIT_MILLIS = 10;
+    private static final double NANOS_IN_MILLI = 1000000;
+
+    private DBCollection collection;
+    private final List<PoolResult> results = new ArrayList<PoolResult>();
+
+    @Before
+    public void setUp() {
+        collection = Fixture.getDefaultDatabase().getCollection(this.getClass().getName());
+        collection.drop();
+        new BulkLoader(collection).load(NUMBER_OF_DOCUMENTS, BulkLoader.copiesOf(new BasicDBObject("name", "String value")));
+    }
+
+    @After
+    public void tearDown() {
+        if (collection != null) {
+            collection.drop();
+        }
+    }
+
+    @Test
+    public void testPoolSize() {
+        for (int connectionsPerHost : new int[]{4, 16, 64, 100}) {
+            sweep(new PoolConfiguration(connectionsPerHost, DEFAULT_MULTIPLIER, DEFAULT_MAX_WAIT_MILLIS, false));
+        }
+        printResults();
+    }
+
+    @Test
+    public void testWaitQueueAndMaxWaitTime() {
+        sweep(new PoolConfiguration(4, 1, DEFAULT_MAX_WAIT_MILLIS, false));
+        sweep(new PoolConfiguration(4, DEFAULT_MULTIPLIER, SHORT_MAX_WAIT_MILLIS, false));
+        sweep(new PoolConfiguration(4, 100, DEFAULT_MAX_WAIT_MILLIS, false));
+        printResults();
+    }
+
+    @Test
+    public void testSocketKeepAlive() {
+        sweep(new PoolConfiguration(16, DEFAULT_MULTIPLIER, DEFAULT_MAX_WAIT_MILLIS, false));
+        sweep(new PoolConfiguration(16, DEFAULT_MULTIPLIER, DEFAULT_MAX_WAIT_MILLIS, true));
+        printResults();
+    }
+
+    private void sweep(final PoolConfiguration configuration) {
+        MongoClient mongoClient = Fixture.createMongoClient(MongoClientOptions.builder()
+                                                                              .connectionsPerHost(configuration.connectionsPerHost)
+                                                                              .threadsAllowedToBlockForConnectionMultiplier(
+                                                                                      configuration.multiplier)
+                                                                              .maxWaitTime(configuration.maxWaitMillis)
+                                                                              .socketKeepAlive(configuration.socketKeepAlive));
+        try {
+            final DB database = mongoClient.getDB(collection.getDB().getName());
+            final DBCollection poolCollection = database.getCollection(collection.getName());
+            SteadyStateWarmup warmup = null;
+            for (int threads : getThreadCounts()) {
+                final LatencyHistogram checkouts = LatencyHistogram.concurrent("Pool Checkout " + configuration + " "
+                                                                                + threads + " threads");
+                // the findOne alone, without the checkout before it, and only for the checkouts that succeeded
+                final LatencyHistogram queries = LatencyHistogram.concurrent("Pool Query " + configuration + " " + threads
+                                                                              + " threads");
+                final AtomicLong checkoutNanos = new AtomicLong();
+                final AtomicLong failedCheckouts = new AtomicLong();
+                Workload query = new Workload() {
+                    @Override
+                    public void execute(final int threadIndex, final int operation) {
+                        long checkoutStart = System.nanoTime();
+                        database.requestStart();
+                        try {
+                            try {
+                                database.requestEnsureConnection();
+                            } catch (MongoException e) {
+                                failedCheckouts.incrementAndGet();
+                                return;
+                            } finally {
+                                long checkoutTime = System.nanoTime() - checkoutStart;
+                                checkoutNanos.addAndGet(checkoutTime);
+                                checkouts.recordValue(checkoutTime);
+                            }
+                            int id = ThreadLocalRandom.current().nextInt(NUMBER_OF_DOCUMENTS);
+                            long queryStart = System.nanoTime();
+                            if (poolCollection.findOne(new BasicDBObject("_id", id)) == null) {
+                                throw new IllegalStateException("Expected to find document " + id);
+                            }
+                            queries.recordSince(queryStart);
+                        } finally {
+                            database.requestDone();
+                        }
+                    }
+                };
+                if (warmup == null) {
+                    warmup = SteadyStateWarmup.run("Pool " + configuration, query);
+                    checkouts.reset();
+                    queries.reset();
+                    checkoutNanos.set(0);
+                    failedCheckouts.set(0);
+                }
+                System.gc();
+                System.gc();
+
+                LoadResult result = new ConcurrentLoadRunner("Pool " + configuration, threads).run(query, OPERATIONS_PER_THREAD);
+                double waitFraction = checkoutNanos.get() / (threads * (double) result.getElapsedMillis() * NANOS_IN_MILLI);
+                PoolResult poolResult = new PoolResult(configuration, result, checkouts, queries, waitFraction, failedCheckouts.get());
+                results.add(poolResult);
+                System.out.printf("%s on %d threads: %.0f ops per second, checkout p99 %.1f micros, %.1f%% of time waiting "
+                                  + "for a connection, %d failed checkouts%n", configuration, threads,
+                                  poolResult.getSuccessfulOperationsPerSecond(), checkouts.getPercentileMicros(99),
+                                  100 * waitFraction, failedCheckouts.get());
+                result.getLatencies().report();
+                checkouts.printPercentiles();
+                queries.printPercentiles();
+                new BenchmarkRecord("Pool Query " + configuration, "1 string field")
+                        .parameter("connectionsPerHost", configuration.connectionsPerHost)
+                        .parameter("threadsAllowedToBlockForConnectionMultiplier", configuration.multiplier)
+                        .parameter("maxWaitTime", configuration.maxWaitMillis)
+                        .parameter("socketKeepAlive", configuration.socketKeepAlive)
+                        .loadResult(result)
+                        .metric("checkoutMicros", new BasicDBObject("mean", checkouts.getMeanMicros())
+                                                  .append("p50", checkouts.getPercentileMicros(50))
+                                                  .append("p99", checkouts.getPercentileMicros(99))
+                                                  .append("max", checkouts.getMaxMicros()))
+                        .metric("queryMicros", new BasicDBObject("mean", queries.getMeanMicros())
+                                               .append("p50", queries.getPercentileMicros(50))
+                                               .append("p99", queries.getPercentileMicros(99))
+                                               .append("max", queries.getMaxMicros()))
+                        .metric("poolWaitFraction", waitFraction)
+                        .metric("failedCheckouts", failedCheckouts.get())
+                        .warmup(warmup)
+                        .write();
+            }
+        } finally {
+            mongoClient.close();
+        }
+    }
+
+    private void printResults() {
+        System.out.printf("Test,Connections per Host,Multiplier,Max Wait Millis,Keep Alive,Threads,Ops per Second,"
+                          + "Checkout p50 Micros,Checkout p99 Micros,Pool Wait %%,Failed Checkouts,Query p99 Micros,"
+                          + "End to End p99 Micros, %n");
+        for (PoolResult result : results) {
+            PoolConfiguration configuration = result.configuration;
+            System.out.printf("Pool Query,%d,%d,%d,%b,%d,%.0f,%.1f,%.1f,%.1f,%d,%.1f,%.1f, %n", configuration.connectionsPerHost,
+                              configuration.multiplier, configuration.maxWaitMillis, configuration.socketKeepAlive,
+                              result.loadResult.getNumberOfThreads(), result.getSuccessfulOperationsPerSecond(),
+                              result.checkouts.getPercentileMicros(50), result.checkouts.getPercentileMicros(99),
+                              100 * result.waitFraction, result.failedCheckouts, result.queries.getPercentileMicros(99),
+                              result.loadResult.getLatencies().getPercentileMicros(99));
+        }
+    }
+
+    static List<Integer> getThreadCounts() {
+        String threadsProperty = System.getProperty(THREADS_SYSTEM_PROPERTY_NAME);
+        String threads = threadsProperty == null || threadsProperty.length() == 0 ? DEFAULT_THREAD_COUNTS : threadsProperty;
+        List<Integer> threadCounts = new ArrayList<Integer>();
+        for (String count : threads.split(",")) {
+            threadCounts.add(Integer.parseInt(count.trim()));
+        }
+        Collections.sort(threadCounts);
+        return threadCounts;
+    }
+
+    private static final class PoolConfiguration {
+        private final int connectionsPerHost;
+        private final int multiplier;
+        private final int maxWaitMillis;
+        private final boolean socketKeepAlive;
+
+        private PoolConfiguration(final int connectionsPerHost, final int multiplier, final int maxWaitMillis,
+                                  final boolean socketKeepAlive) {
+            this.connectionsPerHost = connectionsPerHost;
+            this.multiplier = multiplier;
+            this.maxWaitMillis = maxWaitMillis;
+            this.socketKeepAlive = socketKeepAlive;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("connectionsPerHost=%d multiplier=%d maxWaitTime=%d keepAlive=%b", connectionsPerHost, multiplier,
+                                 maxWaitMillis, socketKeepAlive);
+        }
+    }
+
+    private static final class PoolResult {
+        private final PoolConfiguration configuration;
+        private final LoadResult loadResult;
+        private final LatencyHistogram checkouts;
+        private final LatencyHistogram queries;
+        private final double waitFraction;
+        private final long failedCheckouts;
+
+        private PoolResult(final PoolConfiguration configuration, final LoadResult loadResult, final LatencyHistogram checkouts,
+                           final LatencyHistogram queries, final double waitFraction, final long failedCheckouts) {
+            this.configuration = configuration;
+            this.loadResult = loadResult;
+            this.checkouts = checkouts;
+            this.queries = queries;
+            this.waitFraction = waitFraction;
+            this.failedCheckouts = failedCheckouts;
+        }
+
+        double getSuccessfulOperationsPerSecond() {
+            return (loadResult.getTotalOperations() - failedCheckouts) * 1000.0 / Math.max(1, loadResult.getElapsedMillis());
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2008-2014 MongoDB, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mongodb.perf;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.DuplicateKeyException;
+import com.mongodb.Fixture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs {@code $inc} updates, {@code findAndModify} and upserts on an increasing number of threads, all aimed at a small set of
+ * hot documents, 1, 10 or 1,000 of them, the way counters, sequences and rate-limit buckets are used.  Unlike
+ * {@link ConcurrentPerformanceTest}, which spreads its updates over 10,000 documents, every thread here is competing for the same
+ * few, so the scaling curve shows how far document-level contention holds throughput back.
+ *
+ * <p>The server retries a write that conflicts with another internally, so the client never sees it; where the server reports
+ * them, in {@code serverStatus}, the number of write conflicts per operation is given alongside.  Two upserts of a document that
+ * doesn't exist yet can both try to insert it, and the loser fails with a duplicate key error, which the client has to retry;
+ * those retries are counted too.  The thread counts can be set with {@code -Dorg.mongodb.test.threads=1,2,4,...}.</p>
+ */
+public class ContentionPerformanceTest {
+    private static final int OPERATIONS_PER_THREAD = 5_000;
+    private static final int[] NUMBER_OF_HOT_KEYS = {1, 10, 1000};
+    // each key's upserts move on to a new bucket this often, so there's always a fresh document for the threads to race to create
+    private static final int OPERATIONS_PER_BUCKET = 100;
+    private static final int MAX_RETRIES = 10;
+
+    private DB database;
+    private DBCollection collection;
+    private final AtomicLong retries = new AtomicLong();
+    private final List<ContentionResult> results = new ArrayList<ContentionResult>();
+
+    @Before
+    public void setUp() {
+        database = Fixture.getDefaultDatabase();
+        collection = database.getCollection(this.getClass().getName());
+        collection.drop();
+    }
+
+    @After
+    public void tearDown() {
+        if (collection != null) {
+            collection.drop();
+        }
+        if (database != null) {
+            database.dropDatabase();
+        }
+    }
+
+    @Test
+    public void testContentionOfIncrement() {
+        for (final int hotKeys : NUMBER_OF_HOT_KEYS) {
+            run("Contended $inc", hotKeys, true, new Workload() {
+                @Override
+                public void execute(final int threadIndex, final int operation) {
+                    collection.update(new BasicDBObject("_id", randomKey(hotKeys)),
+                                      new BasicDBObject("$inc", new BasicDBObject("count", 1)));
+                }
+            });
+        }
+        printResults();
+    }
+
+    @Test
+    public void testContentionOfFindAndModify() {
+        for (final int hotKeys : NUMBER_OF_HOT_KEYS) {
+            run("Contended findAndModify", hotKeys, true, new Workload() {
+                @Override
+                public void execute(final int threadIndex, final int operation) {
+                    // the next value of a sequence, as returned to the caller
+                    DBObject sequence = collection.findAndModify(new BasicDBObject("_id", randomKey(hotKeys)), null, null, false,
+                                                                 new BasicDBObject("$inc", new BasicDBObject("count", 1)),
+                                                                 true, false);
+                    if (sequence == null) {
+                        throw new IllegalStateException("Expected to find a document");
+                    }
+                }
+            });
+        }
+        printResults();
+    }
+
+    @Test
+    public void testContentionOfUpsert() {
+        for (final int hotKeys : NUMBER_OF_HOT_KEYS) {
+            run("Contended Upsert", hotKeys, false, new Workload() {
+                @Override
+                public void execute(final int threadIndex, final int operation) {
+                    DBObject bucket = new BasicDBObject("_id", randomKey(hotKeys) + ":" + operation / OPERATIONS_PER_BUCKET);
+                    DBObject increment = new BasicDBObject("$inc", new BasicDBObject("count", 1));
+                    for (int attempt = 0; ; attempt++) {
+                        try {
+                            collection.update(bucket, increment, true, false);
+                            return;
+                        } catch (DuplicateKeyException e) {
+                            // another thread inserted the bucket first, so this time the upsert will find it and update it
+                            if (attempt == MAX_RETRIES) {
+                                throw e;
+                            }
+                            retries.incrementAndGet();
+                        }
+                    }
+                }
+            });
+        }
+        printResults();
+    }
+
+    private void run(final String name, final int hotKeys, final boolean createKeys, final Workload workload) {
+        if (createKeys) {
+            createKeys(hotKeys);
+        }
+        SteadyStateWarmup warmup = SteadyStateWarmup.run(name + " " + hotKeys + " Hot Keys", workload);
+        System.gc();
+        System.gc();
+
+        LoadResult baseline = null;
+        for (int threads : ConcurrentLoadRunner.getThreadCounts()) {
+            collection.drop();
+            if (createKeys) {
+                createKeys(hotKeys);
+            }
+            retries.set(0);
+            long writeConflictsBefore = getWriteConflicts();
+            LoadResult result = new ConcurrentLoadRunner(name + " " + hotKeys + " Hot Keys", threads).run(workload,
+                                                                                                           OPERATIONS_PER_THREAD);
+            long writeConflictsAfter = getWriteConflicts();
+            if (baseline == null) {
+                baseline = result;
+            }
+            // negative where the server doesn't count write conflicts
+            long writeConflicts = writeConflictsBefore < 0 || writeConflictsAfter < 0
+                                  ? -1 : writeConflictsAfter - writeConflictsBefore;
+            ContentionResult contentionResult = new ContentionResult(name, hotKeys, result, result.getScalingEfficiency(baseline),
+                                                                     retries.get(), writeConflicts);
+            results.add(contentionResult);
+
+            result.getLatencies().report();
+            result.getAllocations().report(result.getLatencies().getName());
+            new BenchmarkRecord(name, "_id and a counter")
+                    .parameter("hotKeys", hotKeys)
+                    .loadResult(result)
+                    .warmup(warmup)
+                    .metric("scalingEfficiency", contentionResult.scalingEfficiency)
+                    .metric("retries", contentionResult.retries)
+                    .metric("retriesPerOperation", contentionResult.getRetriesPerOperation())
+                    .metric("writeConflicts", writeConflicts < 0 ? null : writeConflicts)
+                    .metric("writeConflictsPerOperation",
+                            writeConflicts < 0 ? null : contentionResult.getWriteConflictsPerOperation())
+                    .write();
+        }
+    }
+
+    private void createKeys(final int hotKeys) {
+        collection.drop();
+        new BulkLoader(collection).load(hotKeys, new BulkLoader.DocumentSource() {
+            @Override
+            public DBObject createDocument(final int id) {
+                return new BasicDBObject("_id", "key" + id).append("count", 0);
+            }
+        });
+    }
+
+    /**
+     * @return the server's running total of write conflicts, or -1 if it doesn't report one, as servers before 3.0 don't
+     */
+    private long getWriteConflicts() {
+        Object metrics = database.getSisterDB("admin").command("serverStatus").get("metrics");
+        Object operation = metrics instanceof DBObject ? ((DBObject) metrics).get("operation") : null;
+        Object writeConflicts = operation instanceof DBObject ? ((DBObject) operation).get("writeConflicts") : null;
+        return writeConflicts instanceof Number ? ((Number) writeConflicts).longValue() : -1;
+    }
+
+    private static String randomKey(final int hotKeys) {
+        return "key" + ThreadLocalRandom.current().nextInt(hotKeys);
+    }
+
+    private void printResults() {
+        System.out.printf("Test,Hot Keys,Threads,Ops per Second,Time Taken Millis,Scaling Efficiency,50th Percentile Micros,"
+                          + "99th Percentile Micros,Retries per Op,Write Conflicts per Op, %n");
+        for (ContentionResult result : results) {
+            LoadResult loadResult = result.loadResult;
+            System.out.printf("%s,%d,%d,%.0f,%d,%.2f,%.0f,%.0f,%.4f,%s, %n", result.name, result.hotKeys,
+                              loadResult.getNumberOfThreads(), loadResult.getOperationsPerSecond(), loadResult.getElapsedMillis(),
+                              result.scalingEfficiency, loadResult.getLatencies().getPercentileMicros(50),
+                              loadResult.getLatencies().getPercentileMicros(99), result.getRetriesPerOperation(),
+                              result.writeConflicts < 0 ? "n/a"
+                                                        : String.format("%.4f", result.getWriteConflictsPerOperation()));
+        }
+        results.clear();
+    }
+
+    private static final class ContentionResult {
+        private final String name;
+        private final int hotKeys;
+        private final LoadResult loadResult;
+        private final double scalingEfficiency;
+        private final long retries;
+        private final long writeConflicts;
+
+        private ContentionResult(final String name, final int hotKeys, final LoadResult loadResult,
+                                 final double scalingEfficiency, final long retries, final long writeConflicts) {
+            this.name = name;
+            this.hotKeys = hotKeys;
+            this.loadResult = loadResult;
+            this.scalingEfficiency = scalingEfficiency;
+            this.retries = retries;
+            this.writeConflicts = writeConflicts;
+        }
+
+        double getRetriesPerOperation() {
+            return (double) retries / Math.max(1, loadResult.getTotalOperations());
+        }
+
+        double getWriteConflictsPerOperation() {
+            return (double) writeConflicts / Math.max(1, loadResult.getTotalOperations());
+        }
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2008-2014 MongoDB, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mongodb.perf;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.Fixture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Runs point lookups, updates and deletes by {@code _id}, at random across the whole collection, against collections of 10^3 up to
+ * 10^7 documents.  Small collections sit in the server's cache; once the collection outgrows it every operation is liable to go
+ * to disk, and the throughput and p99 columns of the final table show where that happens.
+ *
+ * <p>The collection sizes can be set with {@code -Dorg.mongodb.test.dataset.sizes=1000,10000,...} and the target encoded size of
+ * each document, in bytes, with {@code -Dorg.mongodb.test.dataset.documentSize}.  Documents are nested, of mixed types, from a
+ * {@link DocumentGenerator}, and can come out larger than the target, so their mean size is recorded too.</p>
+ */
+public class DatasetScalingPerformanceTest {
+    public static final String DATASET_SIZES_SYSTEM_PROPERTY_NAME = "org.mongodb.test.dataset.sizes";
+    public static final String DOCUMENT_SIZE_SYSTEM_PROPERTY_NAME = "org.mongodb.test.dataset.documentSize";
+    private static final String DEFAULT_DATASET_SIZES = "1000,10000,100000,1000000,10000000";
+    private static final int DEFAULT_DOCUMENT_SIZE = 1024;
+    private static final int NUMBER_OF_OPERATIONS = 10_000;
+    // the loaded documents are copies of this many generated ones, as generating millions would take longer than loading them
+    private static final int DISTINCT_DOCUMENTS = 1000;
+    private static final long SEED = 42;
+    private static final double NUM_MILLIS_IN_SECOND = 1000;
+    private static final double BYTES_IN_MEGABYTE = 1024 * 1024;
+
+    private DB database;
+    private DBCollection collection;
+    private final List<DatasetResult> results = new ArrayList<DatasetResult>();
+    @SuppressWarnings("PublicField")
+    public long fieldCountToAvoidOptimization;
+
+    @Before
+    public void setUp() {
+        database = Fixture.getDefaultDatabase();
+        collection = database.getCollection(this.getClass().getName());
+        collection.drop();
+    }
+
+    @After
+    public void tearDown() {
+        if (collection != null) {
+            collection.drop();
+        }
+        if (database != null) {
+            database.dropDatabase();
+        }
+    }
+
+    @Test
+    public void testScalingWithDatasetSize() {
+        int documentSize = Integer.getInteger(DOCUMENT_SIZE_SYSTEM_PROPERTY_NAME, DEFAULT_DOCUMENT_SIZE);
+        DocumentGenerator generator = DocumentGenerator.nested(documentSize);
+        final List<DBObject> documents = generator.generate(DISTINCT_DOCUMENTS);
+        double meanDocumentSize = DocumentGenerator.getMeanEncodedSize(documents);
+        System.out.printf("Mean document size: %.0f bytes, for a target of %d%n", meanDocumentSize, documentSize);
+        BulkLoader.DocumentSource source = new BulkLoader.DocumentSource() {
+            @Override
+            public DBObject createDocument(final int id) {
+                return BulkLoader.copiesOf(documents.get(id % DISTINCT_DOCUMENTS)).createDocument(id);
+            }
+        };
+
+        List<Integer> datasetSizes = getDatasetSizes();
+        SteadyStateWarmup warmup = null;
+        for (final int datasetSize : datasetSizes) {
+            collection.drop();
+            // only the last batch of each thread is acknowledged, which makes seeding ten million documents far quicker
+            new BulkLoader(collection).unacknowledged().load(datasetSize, source);
+            if (warmup == null) {
+                // the first collection also warms up the driver, so its figures aren't those of the interpreter
+                warmup = SteadyStateWarmup.run("Dataset Point Lookup and Update", new Workload() {
+                    @Override
+                    public void execute(final int threadIndex, final int operation) {
+                        DBObject query = new BasicDBObject("_id", ThreadLocalRandom.current().nextInt(datasetSize));
+                        DBObject found = collection.findOne(query);
+                        fieldCountToAvoidOptimization += found == null ? 0 : found.keySet().size();
+                        collection.update(query, new BasicDBObject("$inc", new BasicDBObject("updates", 1)));
+                    }
+                });
+            }
+            long dataSize = getDataSize(datasetSize, meanDocumentSize);
+
+            run("Dataset Point Lookup", datasetSize, dataSize, generator, meanDocumentSize, warmup, new Operation() {
+                @Override
+                public long run(final int datasetSize, final LatencyHistogram latencies) {
+                    return lookup(datasetSize, latencies);
+                }
+            });
+            run("Dataset Update", datasetSize, dataSize, generator, meanDocumentSize, warmup, new Operation() {
+                @Override
+                public long run(final int datasetSize, final LatencyHistogram latencies) {
+                    return update(datasetSize, latencies);
+                }
+            });
+            run("Dataset Delete", datasetSize, dataSize, generator, meanDocumentSize, warmup, new Operation() {
+                @Override
+                public long run(final int datasetSize, final LatencyHistogram latencies) {
+                    return delete(datasetSize, latencies);
+                }
+            });
+        }
+        printResults();
+    }
+
+    private void run(final String name, final int datasetSize, final long dataSize, final DocumentGenerator generator,
+                     final double meanDocumentSize, final SteadyStateWarmup warmup, final Operation operation) {
+        System.gc();
+        System.gc();
+        LatencyHistogram latencies = new LatencyHistogram(name + " " + datasetSize + " Documents");
+
+        AllocationMonitor allocations = AllocationMonitor.start();
+        long startTime = System.currentTimeMillis();
+        long numberOfOperations = operation.run(datasetSize, latencies);
+        long timeTaken = System.currentTimeMillis() - startTime;
+        allocations.stop(numberOfOperations);
+
+        DatasetResult result = new DatasetResult(name, datasetSize, dataSize, numberOfOperations, timeTaken,
+                                                 latencies.getPercentileMicros(50), latencies.getPercentileMicros(99));
+        results.add(result);
+        latencies.report();
+        allocations.report(latencies.getName());
+        new BenchmarkRecord(name, generator.getShape())
+                .parameter("datasetSize", datasetSize)
+                .operations(numberOfOperations, timeTaken)
+                .latencies(latencies)
+                .allocations(allocations)
+                .metric("dataSizeBytes", dataSize)
+                .metric("meanDocumentSizeBytes", meanDocumentSize)
+                .warmup(warmup)
+                .write();
+    }
+
+    private long lookup(final int datasetSize, final LatencyHistogram latencies) {
+        Random random = new Random(SEED);
+        for (int i = 0; i < NUMBER_OF_OPERATIONS; i++) {
+            int id = random.nextInt(datasetSize);
+            long operationStart = System.nanoTime();
+            DBObject found = collection.findOne(new BasicDBObject("_id", id));
+            latencies.recordSince(operationStart);
+            fieldCountToAvoidOptimization += found == null ? 0 : found.keySet().size();
+        }
+        return NUMBER_OF_OPERATIONS;
+    }
+
+    private long update(final int datasetSize, final LatencyHistogram latencies) {
+        // a different seed to the lookups, so the updates don't find their documents already in cache
+        Random random = new Random(SEED + 1);
+        DBObject update = new BasicDBObject("$inc", new BasicDBObject("updates", 1));
+        for (int i = 0; i < NUMBER_OF_OPERATIONS; i++) {
+            int id = random.nextInt(datasetSize);
+            long operationStart = System.nanoTime();
+            collection.update(new BasicDBObject("_id", id), update);
+            latencies.recordSince(operationStart);
+        }
+        return NUMBER_OF_OPERATIONS;
+    }
+
+    // each delete removes a different document, picked at random, so none of them misses; a collection smaller than the number of
+    // operations is emptied, in random order
+    private long delete(final int datasetSize, final LatencyHistogram latencies) {
+        List<Integer> ids = randomDistinctIds(Math.min(NUMBER_OF_OPERATIONS, datasetSize), datasetSize, new Random(SEED + 2));
+        for (int id : ids) {
+            long operationStart = System.nanoTime();
+            collection.remove(new BasicDBObject("_id", id));
+            latencies.recordSince(operationStart);
+        }
+        return ids.size();
+    }
+
+    private static List<Integer> randomDistinctIds(final int numberOfIds, final int datasetSize, final Random random) {
+        Set<Integer> ids = new HashSet<Integer>();
+        while (ids.size() < numberOfIds) {
+            ids.add(random.nextInt(datasetSize));
+        }
+        // shuffled, as a HashSet of small integers iterates in roughly ascending order
+        List<Integer> shuffled = new ArrayList<Integer>(ids);
+        Collections.shuffle(shuffled, random);
+        return shuffled;
+    }
+
+    /**
+     * @return the size of the collection's data according to the server, or the size of the documents loaded if the server
+     * doesn't say
+     */
+    private long getDataSize(final int datasetSize, final double meanDocumentSize) {
+        Object size = collection.getStats().get("size");
+        return size instanceof Number ? ((Number) size).longValue() : (long) (datasetSize * meanDocumentSize);
+    }
+
+    private void printResults() {
+        System.out.printf("Test,Dataset Size,Data Size MB,Operations,Ops per Second,p50 Micros,p99 Micros, %n");
+        for (DatasetResult result : results) {
+            System.out.printf("%s,%d,%.1f,%d,%.0f,%.1f,%.1f, %n", result.name, result.datasetSize,
+                              result.dataSize / BYTES_IN_MEGABYTE, result.numberOfOperations,
+                              result.numberOfOperations * NUM_MILLIS_IN_SECOND / Math.max(1, result.timeTaken),
+                              result.p50Micros, result.p99Micros);
+        }
+    }
+
+    static List<Integer> getDatasetSizes() {
+        String sizesProperty = System.getProperty(DATASET_SIZES_SYSTEM_PROPERTY_NAME);
+        String sizes = sizesProperty == null || sizesProperty.length() == 0 ? DEFAULT_DATASET_SIZES : sizesProperty;
+        List<Integer> datasetSizes = new ArrayList<Integer>();
+        for (String size : sizes.split(",")) {
+            datasetSizes.add(Integer.parseInt(size.trim()));
+        }
+        return datasetSizes;
+    }
+
+    private interface Operation {
+        /**
+         * @return the number of operations performed
+         */
+        long run(int datasetSize, LatencyHistogram latencies);
+    }
+
+    private static final class DatasetResult {
+        private final String name;
+        private final int datasetSize;
+        private final long dataSize;
+        private final long numberOfOperations;
+        private final long timeTaken;
+        private final double p50Micros;
+        private final double p99Micros;
+
+        private DatasetResult(final String name, final int datasetSize, final long dataSize, final long numberOfOperations,
+                              final long timeTaken, final double p50Micros, final double p99Micros) {
+            this.name = name;
+            this.datasetSize = datasetSize;
+            this.dataSize = dataSize;
+            this.numberOfOperations = numberOfOperations;
+            this.timeTaken = timeTaken;
+            this.p50Micros = p50Micros;
+            this.p99Micros = p99Micros;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2008-2014 MongoDB, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mongodb.perf;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBDecoderFactory;
+import com.mongodb.DBObject;
+import com.mongodb.DefaultDBDecoder;
+import com.mongodb.Fixture;
+import com.mongodb.LazyDBDecoder;
+import org.bson.LazyBSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Scans a collection of documents with 100 fields, as {@link QueryAllPerformanceTest} does, decoding the results either eagerly
+ * into {@code BasicDBObject}s, which is the default, or lazily into {@code LazyDBObject}s, which keep the bytes as they came off the
+ * wire and only decode a field when it is read.  Each decoder is run reading every field, reading three fields, and, for the lazy
+ * decoder, forwarding the raw bytes without reading any field, to show which way round the trade-off falls for each kind of
+ * reader.  The table at the end gives documents per second and bytes allocated per document.
+ *
+ * <p>A lazy document finds each field by walking its bytes from the start, so reading every field through {@code get} costs far
+ * more than decoding it eagerly once.</p>
+ */
+public class DecodingPerformanceTest {
+    private static final int NUMBER_OF_DOCUMENTS = 1000;
+    private static final int NUMBER_OF_FIELDS = 100;
+    private static final int NUMBER_OF_SCANS = 200;
+    private static final String[] FIELDS_TO_READ = {"field0", "field50", "field99"};
+    private static final double NUM_MILLIS_IN_SECOND = 1000;
+
+    private DB database;
+    private DBCollection collection;
+    private final List<DecodingResult> results = new ArrayList<DecodingResult>();
+    @SuppressWarnings("PublicField")
+    public long valueCountToAvoidOptimization;
+
+    @Before
+    public void setUp() {
+        database = Fixture.getDefaultDatabase();
+        collection = database.getCollection(this.getClass().getName());
+        collection.drop();
+        BasicDBObject document = new BasicDBObject();
+        for (int i = 0; i < NUMBER_OF_FIELDS; i++) {
+            document.put("field" + i, "value " + i);
+        }
+        new BulkLoader(collection).load(NUMBER_OF_DOCUMENTS, BulkLoader.copiesOf(document));
+    }
+
+    @After
+    public void tearDown() {
+        if (collection != null) {
+            collection.drop();
+        }
+        if (database != null) {
+            database.dropDatabase();
+        }
+    }
+
+    @Test
+    public void testEagerAndLazyDecoding() {
+        scan("Eager", DefaultDBDecoder.FACTORY, AccessPattern.ALL_FIELDS);
+        scan("Lazy", LazyDBDecoder.FACTORY, AccessPattern.ALL_FIELDS);
+        scan("Eager", DefaultDBDecoder.FACTORY, AccessPattern.FEW_FIELDS);
+        scan("Lazy", LazyDBDecoder.FACTORY, AccessPattern.FEW_FIELDS);
+        scan("Lazy", LazyDBDecoder.FACTORY, AccessPattern.RAW_BYTES);
+        printResults();
+    }
+
+    private void scan(final String decoder, final DBDecoderFactory decoderFactory, final AccessPattern accessPattern) {
+        String name = "Decode " + decoder + " " + accessPattern.description;
+        SteadyStateWarmup warmup = SteadyStateWarmup.run(name, new Workload() {
+            @Override
+            public void execute(final int threadIndex, final int operation) {
+                scanOnce(decoderFactory, accessPattern);
+            }
+        });
+        System.gc();
+        System.gc();
+        LatencyHistogram latencies = new LatencyHistogram(name);
+
+        AllocationMonitor allocations = AllocationMonitor.start();
+        long startTime = System.currentTimeMillis();
+        for (int i = 0; i < NUMBER_OF_SCANS; i++) {
+            long operationStart = System.nanoTime();
+            scanOnce(decoderFactory, accessPattern);
+            latencies.recordSince(operationStart);
+        }
+        long timeTaken = System.currentTimeMillis() - startTime;
+        long documents = (long) NUMBER_OF_SCANS * NUMBER_OF_DOCUMENTS;
+        allocations.stop(documents);
+
+        DecodingResult result = new DecodingResult(decoder, accessPattern, documents, timeTaken,
+                                                   allocations.getAllocatedBytesPerOperation());
+        results.add(result);
+        System.out.printf("%s: %.0f documents per second%n", name, result.getDocumentsPerSecond());
+        latencies.report();
+        allocations.report(name);
+        new BenchmarkRecord(name, NUMBER_OF_FIELDS + " string fields")
+                .parameter("decoder", decoder)
+                .parameter("accessPattern", accessPattern.description)
+                .parameter("documentsPerScan", NUMBER_OF_DOCUMENTS)
+                .operations(documents, timeTaken)
+                .latencies(latencies)
+                .allocations(allocations)
+                .warmup(warmup)
+                .write();
+    }
+
+    private void scanOnce(final DBDecoderFactory decoderFactory, final AccessPattern accessPattern) {
+        DBCursor cursor = collection.find().setDecoderFactory(decoderFactory);
+        try {
+            while (cursor.hasNext()) {
+                valueCountToAvoidOptimization += accessPattern.read(cursor.next());
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void printResults() {
+        System.out.printf("Test,Decoder,Access Pattern,Docs per Second,Time Taken Millis,Allocated Bytes per Doc, %n");
+        for (DecodingResult result : results) {
+            System.out.printf("Decode,%s,%s,%.0f,%d,%.0f, %n", result.decoder, result.accessPattern.description,
+                              result.getDocumentsPerSecond(), result.timeTaken, result.allocatedBytesPerDocument);
+        }
+    }
+
+    private enum AccessPattern {
+        ALL_FIELDS("all fields") {
+            @Override
+            long read(final DBObject document) {
+                long values = 0;
+                for (String key : document.keySet()) {
+                    if (document.get(key) != null) {
+                        values++;
+                    }
+                }
+                return values;
+            }
+        },
+        FEW_FIELDS(FIELDS_TO_READ.length + " fields") {
+            @Override
+            long read(final DBObject document) {
+                long values = 0;
+                for (String key : FIELDS_TO_READ) {
+                    if (document.get(key) != null) {
+                        values++;
+                    }
+                }
+                return values;
+            }
+        },
+        // hands the document on as it came off the wire, the way a proxy or a cache would, without reading any field
+        RAW_BYTES("raw bytes") {
+            @Override
+            long read(final DBObject document) {
+                try {
+                    return ((LazyBSONObject) document).pipe(DISCARD);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+
+        private static final OutputStream DISCARD = new OutputStream() {
+            @Override
+            public void write(final int b) {
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) {
+            }
+        };
+
+        private final String description;
+
+        AccessPattern(final String description) {
+            this.description = description;
+        }
+
+        /**
+         * @return the number of values read, or of bytes for raw access
+         */
+        abstract long read(DBObject document);
+    }
+
+    private static final class DecodingResult {
+        private final String decoder;
+        private final AccessPattern accessPattern;
+        private final long documents;
+        private final long timeTaken;
+        private final double allocatedBytesPerDocument;
+
+        private DecodingResult(final String decoder, final AccessPattern accessPattern, final long documents, final long timeTaken,
+                               final double allocatedBytesPerDocument) {
+            this.decoder = decoder;
+            this.accessPattern = accessPattern;
+            this.documents = documents;
+            this.timeTaken = timeTaken;
+            this.allocatedBytesPerDocument = allocatedBytesPerDocument;
+        }
+
+        double getDocumentsPerSecond() {
+            return documents * NUM_MILLIS_IN_SECOND / Math.max(1, timeTaken);
+        }
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2008-2014 MongoDB, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mongodb.perf;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.bson.BasicBSONEncoder;
+import org.bson.types.Binary;
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Generates documents of a given shape: how many fields each level has, how deeply sub-documents and arrays nest, how long the
+ * arrays are, which types the values are drawn from, and how many bytes the encoded document should take.  Documents are built
+ * from a seeded {@code Random}, so two generators configured alike produce the same documents, run after run.
+ *
+ * <pre>
+ *    DocumentGenerator generator = DocumentGenerator.nested(4 * 1024);
+ *    DBObject document = generator.generate();
+ * </pre>
+ *
+ * <p>A document that comes out smaller than the target size gets more top level fields, of the same mix of types, until the next
+ * would overshoot, and the few bytes left are made up with a string field called {@code padding}.  One that comes out larger is
+ * left as it is, so the field count and depth win over the size; with the default shape that is common below about 2KB, so tests
+ * record the size the documents actually came out at, from {@link #getMeanEncodedSize}.  Generators are not safe to share between
+ * threads.</p>
+ */
+public final class DocumentGenerator {
+    public static final String SEED_SYSTEM_PROPERTY_NAME = "org.mongodb.test.document.seed";
+    private static final long DEFAULT_SEED = 42;
+    private static final int DEFAULT_FIELDS_PER_LEVEL = 10;
+    private static final int DEFAULT_DEPTH = 2;
+    private static final int DEFAULT_ARRAY_LENGTH = 5;
+    private static final int MIN_STRING_LENGTH = 8;
+    private static final int MAX_STRING_LENGTH = 32;
+    private static final int BINARY_LENGTH = 32;
+    private static final String PADDING_FIELD_NAME = "padding";
+    // the length and the terminating zero
+    private static final int EMPTY_DOCUMENT_SIZE = 4 + 1;
+    // type byte, "padding" and its terminating zero, the string length and the string's terminating zero
+    private static final int PADDING_OVERHEAD = 1 + PADDING_FIELD_NAME.length() + 1 + 4 + 1;
+
+    private final Random random;
+    private int fieldsPerLevel = DEFAULT_FIELDS_PER_LEVEL;
+    private int depth = DEFAULT_DEPTH;
+    private int arrayLength = DEFAULT_ARRAY_LENGTH;
+    private List<FieldType> types = new ArrayList<FieldType>(EnumSet.allOf(FieldType.class));
+    private List<FieldType> scalarTypes = scalars(types);
+    private int targetSizeInBytes;
+
+    /**
+     * Creates a generator seeded from {@code -Dorg.mongodb.test.document.seed}, or a fixed seed if that isn't set.
+     */
+    public DocumentGenerator() {
+        this(Long.getLong(SEED_SYSTEM_PROPERTY_NAME, DEFAULT_SEED));
+    }
+
+    public DocumentGenerator(final long seed) {
+        random = new Random(seed);
+    }
+
+    /**
+     * @param targetSizeInBytes the encoded size of each document
+     * @return a generator of documents with ten fields of every type per level, sub-documents and arrays of five nested two
+     * levels deep, and as many top level fields as it takes to reach the given size
+     */
+    public static DocumentGenerator nested(final int targetSizeInBytes) {
+        return new DocumentGenerator().targetSize(targetSizeInBytes);
+    }
+
+    public DocumentGenerator fieldsPerLevel(final int numberOfFields) {
+        fieldsPerLevel = numberOfFields;
+        return this;
+    }
+
+    /**
+     * @param levels how many levels of sub-documents and arrays to nest below the top level; 0 gives a flat document
+     * @return this
+     */
+    public DocumentGenerator depth(final int levels) {
+        depth = levels;
+        return this;
+    }
+
+    public DocumentGenerator arrayLength(final int numberOfElements) {
+        arrayLength = numberOfElements;
+        return this;
+    }
+
+    /**
+     * @param fieldTypes the types to draw each value from, with equal likelihood; a type listed twice is twice as likely
+     * @return this
+     */
+    public DocumentGenerator types(final FieldType... fieldTypes) {
+        types = Arrays.asList(fieldTypes);
+        scalarTypes = scalars(types);
+        if (scalarTypes.isEmpty()) {
+            throw new IllegalArgumentException("At least one type must be a scalar, to fill the deepest level");
+        }
+        return this;
+    }
+
+    /**
+     * @param sizeInBytes the encoded size to fill each document to, or 0 to leave each as generated
+     * @return this
+     */
+    public DocumentGenerator targetSize(final int sizeInBytes) {
+        targetSizeInBytes = sizeInBytes;
+        return this;
+    }
+
+    public DBObject generate() {
+        BasicDBObject document = document(0);
+        if (targetSizeInBytes > 0) {
+            int size = getEncodedSize(document);
+            for (int i = fieldsPerLevel; ; i++) {
+                String name = "field" + i;
+                Object value = value(0);
+                int fieldSize = getEncodedSize(new BasicDBObject(name, value)) - EMPTY_DOCUMENT_SIZE;
+                if (size + fieldSize + PADDING_OVERHEAD > targetSizeInBytes) {
+                    break;
+                }
+                document.put(name, value);
+                size += fieldSize;
+            }
+            int paddingLength = targetSizeInBytes - size - PADDING_OVERHEAD;
+            if (paddingLength > 0) {
+                document.put(PADDING_FIELD_NAME, string(paddingLength));
+            }
+        }
+        return document;
+    }
+
+    public List<DBObject> generate(final int numberOfDocuments) {
+        List<DBObject> documents = new ArrayList<DBObject>(numberOfDocuments);
+        for (int i = 0; i < numberOfDocuments; i++) {
+            documents.add(generate());
+        }
+        return documents;
+    }
+
+    /**
+     * @return the shape in the form "10 fields per level, depth 2, arrays of 5, 4096 bytes", for reports
+     */
+    public String getShape() {
+        return String.format("%d fields per level, depth %d, arrays of %d, %s", fieldsPerLevel, depth, arrayLength,
+                             targetSizeInBytes > 0 ? targetSizeInBytes + " bytes" : "unpadded");
+    }
+
+    @Override
+    public String toString() {
+        return getShape();
+    }
+
+    public static int getEncodedSize(final DBObject document) {
+        return new BasicBSONEncoder().encode(document).length;
+    }
+
+    /**
+     * @param documents the documents to measure
+     * @return the mean of their encoded sizes, which can be above the target size, as documents are never cut down to it
+     */
+    public static double getMeanEncodedSize(final List<DBObject> documents) {
+        long totalSize = 0;
+        for (DBObject document : documents) {
+            totalSize += getEncodedSize(document);
+        }
+        return documents.isEmpty() ? 0 : (double) totalSize / documents.size();
+    }
+
+    private BasicDBObject document(final int level) {
+        BasicDBObject document = new BasicDBObject();
+        for (int i = 0; i < fieldsPerLevel; i++) {
+            document.put("field" + i, value(level));
+        }
+        return document;
+    }
+
+    private Object value(final int level) {
+        List<FieldType> candidates = level < depth ? types : scalarTypes;
+        FieldType type = candidates.get(random.nextInt(candidates.size()));
+        switch (type) {
+            case STRING:
+                return string(MIN_STRING_LENGTH + random.nextInt(MAX_STRING_LENGTH - MIN_STRING_LENGTH + 1));
+            case INT:
+                return random.nextInt();
+            case LONG:
+                return random.nextLong();
+            case DOUBLE:
+                return random.nextDouble();
+            case BOOLEAN:
+                return random.nextBoolean();
+            case DATE:
+                return new Date(random.nextLong() >>> 24);
+            case OBJECT_ID:
+                return new ObjectId(new Date(random.nextLong() >>> 24), random.nextInt());
+            case BINARY:
+                byte[] bytes = new byte[BINARY_LENGTH];
+                random.nextBytes(bytes);
+                return new Binary(bytes);
+            case DOCUMENT:
+                return document(level + 1);
+            case ARRAY:
+                BasicDBList array = new BasicDBList();
+                for (int i = 0; i < arrayLength; i++) {
+                    array.add(value(level + 1));
+                }
+                return array;
+            default:
+                throw new UnsupportedOperationException(type.toString());
+        }
+    }
+
+    private String string(final int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(chars);
+    }
+
+    private static List<FieldType> scalars(final List<FieldType> fieldTypes) {
+        List<FieldType> scalars = new ArrayList<FieldType>();
+        Set<FieldType> containers = EnumSet.of(FieldType.DOCUMENT, FieldType.ARRAY);
+        for (FieldType type : fieldTypes) {
+            if (!containers.contains(type)) {
+                scalars.add(type);
+            }
+        }
+        return scalars;
+    }
+
+    public enum FieldType {
+        STRING, INT, LONG, DOUBLE, BOOLEAN, DATE, OBJECT_ID, BINARY, DOCUMENT, ARRAY
+    }
+}
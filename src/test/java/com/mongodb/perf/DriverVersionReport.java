@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2008-2014 MongoDB, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mongodb.perf;
+
+import com.mongodb.DBObject;
+import com.mongodb.perf.ResultsComparison.Samples;
+import com.mongodb.util.JSON;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.mongodb.perf.ResultsComparison.group;
+import static com.mongodb.perf.ResultsComparison.percentChange;
+
+/**
+ * Prints the results of the same suite run against several driver versions side by side, one table per workload.  Each row is a
+ * document shape, thread count and parameter combination, with the throughput and 99th percentile latency for every driver
+ * version and the throughput change against the first version.
+ *
+ * <p>Usage: {@code DriverVersionReport <results file or directory> [driver versions, comma separated]}, or
+ * {@code gradle driverMatrix -PdriverVersions=2.11.4,2.12.4}.  Without a list of versions they are shown in the order they
+ * appear in the results.</p>
+ */
+public final class DriverVersionReport {
+    private final List<String> driverVersions;
+
+    public DriverVersionReport(final List<String> driverVersions) {
+        this.driverVersions = driverVersions;
+    }
+
+    public static void main(final String[] args) {
+        if (args.length < 1) {
+            System.err.println("Usage: DriverVersionReport <results file or directory> [driver versions, comma separated]");
+            System.exit(2);
+        }
+        List<String> driverVersions = args.length > 1 ? Arrays.asList(args[1].split(",")) : new ArrayList<String>();
+        new DriverVersionReport(driverVersions).print(ResultsStore.read(new File(args[0])), System.out);
+    }
+
+    /**
+     * Prints a CSV table for every workload in the records.
+     *
+     * @param records the records of all the driver versions
+     * @param out     where to print the tables
+     */
+    public void print(final List<DBObject> records, final PrintStream out) {
+        List<String> versions = new ArrayList<String>(driverVersions);
+        Map<String, Map<String, List<DBObject>>> recordsByWorkloadAndVersion = new LinkedHashMap<String, Map<String, List<DBObject>>>();
+        for (DBObject record : records) {
+            String version = (String) record.get(BenchmarkRecord.DRIVER_VERSION);
+            if (!versions.contains(version)) {
+                if (!driverVersions.isEmpty()) {
+                    continue;
+                }
+                versions.add(version);
+            }
+            String workload = (String) record.get(BenchmarkRecord.TEST);
+            Map<String, List<DBObject>> recordsByVersion = recordsByWorkloadAndVersion.get(workload);
+            if (recordsByVersion == null) {
+                recordsByVersion = new LinkedHashMap<String, List<DBObject>>();
+                recordsByWorkloadAndVersion.put(workload, recordsByVersion);
+            }
+            List<DBObject> versionRecords = recordsByVersion.get(version);
+            if (versionRecords == null) {
+                versionRecords = new ArrayList<DBObject>();
+                recordsByVersion.put(version, versionRecords);
+            }
+            versionRecords.add(record);
+        }
+
+        for (Map.Entry<String, Map<String, List<DBObject>>> workload : recordsByWorkloadAndVersion.entrySet()) {
+            printWorkload(workload.getKey(), workload.getValue(), versions, out);
+        }
+    }
+
+    private void printWorkload(final String workload, final Map<String, List<DBObject>> recordsByVersion,
+                               final List<String> versions, final PrintStream out) {
+        Map<String, Map<String, Samples>> samplesByVersion = new LinkedHashMap<String, Map<String, Samples>>();
+        Map<String, DBObject> rows = new LinkedHashMap<String, DBObject>();
+        for (String version : versions) {
+            Map<String, Samples> samples = group(recordsByVersion.containsKey(version)
+                                                 ? recordsByVersion.get(version)
+                                                 : new ArrayList<DBObject>());
+            samplesByVersion.put(version, samples);
+            for (Map.Entry<String, Samples> row : samples.entrySet()) {
+                if (!rows.containsKey(row.getKey())) {
+                    rows.put(row.getKey(), row.getValue().getFirstRecord());
+                }
+            }
+        }
+
+        out.println(workload);
+        StringBuilder header = new StringBuilder("Document Shape,Threads,Parameters");
+        for (String version : versions) {
+            header.append(',').append(version).append(" Ops per Second");
+        }
+        for (String version : versions.subList(1, versions.size())) {
+            header.append(',').append(version).append(" Change %");
+        }
+        for (String version : versions) {
+            header.append(',').append(version).append(" p99 Micros");
+        }
+        out.printf("%s, %n", header);
+
+        for (Map.Entry<String, DBObject> row : rows.entrySet()) {
+            DBObject record = row.getValue();
+            StringBuilder line = new StringBuilder();
+            line.append(record.get(BenchmarkRecord.DOCUMENT_SHAPE)).append(',')
+                .append(record.get(BenchmarkRecord.THREADS)).append(',')
+                .append(JSON.serialize(record.get(BenchmarkRecord.PARAMETERS)).replace(',', ';'));
+            double[] opsPerSecond = new double[versions.size()];
+            double[] p99 = new double[versions.size()];
+            for (int i = 0; i < versions.size(); i++) {
+                Samples samples = samplesByVersion.get(versions.get(i)).get(row.getKey());
+                opsPerSecond[i] = samples == null ? Double.NaN : samples.getMeanOpsPerSecond();
+                p99[i] = samples == null ? Double.NaN : samples.getMeanP99();
+                line.append(',').append(format("%.0f", opsPerSecond[i]));
+            }
+            for (int i = 1; i < versions.size(); i++) {
+                line.append(',').append(format("%+.1f", percentChange(opsPerSecond[0], opsPerSecond[i])));
+            }
+            for (int i = 0; i < versions.size(); i++) {
+                line.append(',').append(format("%.1f", p99[i]));
+            }
+            out.printf("%s, %n", line);
+        }
+        out.println();
+    }
+
+    private static String format(final String format, final double value) {
+        return Double.isNaN(value) ? "" : String.format(format, value);
+    }
+}
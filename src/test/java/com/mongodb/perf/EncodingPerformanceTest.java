@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2008-2014 MongoDB, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mongodb.perf;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBEncoder;
+import com.mongodb.DBEncoderFactory;
+import com.mongodb.DBObject;
+import com.mongodb.DefaultDBEncoder;
+import com.mongodb.Fixture;
+import org.bson.io.BasicOutputBuffer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Runs the single, 100 field and batch inserts of {@link InsertPerformanceTest} and {@link InsertBatchPerformanceTest} with the
+ * driver's default encoder and with a {@link CachingDBEncoderFactory}, which reuses one encoder per thread and the encoded bytes of
+ * each field name.  The difference between the two, in throughput, bytes allocated per document and time spent in GC, is the part
+ * of the cost of an insert that is client-side churn rather than work the server has to do.  Before the inserts are timed, the
+ * caching encoder's output is checked to be byte for byte that of the default encoder for each of the documents.
+ */
+public class EncodingPerformanceTest {
+    private static final int NUMBER_OF_DOCUMENTS = 20_000;
+    private static final int BATCH_SIZE = 100;
+    private static final double NUM_MILLIS_IN_SECOND = 1000;
+
+    private DB database;
+    private DBCollection collection;
+    private final List<EncodingResult> results = new ArrayList<EncodingResult>();
+
+    @Before
+    public void setUp() {
+        database = Fixture.getDefaultDatabase();
+        collection = database.getCollection(this.getClass().getName());
+        collection.drop();
+    }
+
+    @After
+    public void tearDown() {
+        if (collection != null) {
+            collection.setDBEncoderFactory(null);
+            collection.drop();
+        }
+        if (database != null) {
+            database.dropDatabase();
+        }
+    }
+
+    @Test
+    public void testDefaultAndCachingEncoders() {
+        DBObject stringDocument = new BasicDBObject("name", "String value");
+        DBObject hundredFieldDocument = new BasicDBObject();
+        for (int i = 0; i < 100; i++) {
+            hundredFieldDocument.put("field" + i, "value " + i);
+        }
+        List<DBObject> batch = new ArrayList<DBObject>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.add(new BasicDBObject(hundredFieldDocument.toMap()));
+        }
+
+        DBEncoderFactory cachingEncoderFactory = new CachingDBEncoderFactory();
+        verifyEncoding(cachingEncoderFactory, Arrays.asList(stringDocument, hundredFieldDocument));
+        verifyEncoding(cachingEncoderFactory, batch);
+        for (DBEncoderFactory encoderFactory : new DBEncoderFactory[]{null, cachingEncoderFactory}) {
+            String encoder = encoderFactory == null ? "Default" : "Caching";
+            insert(encoder, encoderFactory, "1 string field", Collections.<DBObject>singletonList(stringDocument));
+            insert(encoder, encoderFactory, "100 string fields", Collections.<DBObject>singletonList(hundredFieldDocument));
+            insert(encoder, encoderFactory, "100 string fields batch " + BATCH_SIZE, batch);
+        }
+        printResults();
+    }
+
+    private void insert(final String encoder, final DBEncoderFactory encoderFactory, final String shape,
+                        final List<DBObject> documents) {
+        String name = "Encode " + encoder + " Insert " + shape;
+        // a null factory is the driver's default encoder
+        collection.setDBEncoderFactory(encoderFactory);
+        SteadyStateWarmup warmup = SteadyStateWarmup.run(name, new Workload() {
+            @Override
+            public void execute(final int threadIndex, final int operation) {
+                insertOnce(documents);
+            }
+        });
+        collection.drop();
+        System.gc();
+        System.gc();
+        LatencyHistogram latencies = new LatencyHistogram(name);
+
+        int numberOfInserts = NUMBER_OF_DOCUMENTS / documents.size();
+        AllocationMonitor allocations = AllocationMonitor.start();
+        long startTime = System.currentTimeMillis();
+        for (int i = 0; i < numberOfInserts; i++) {
+            long operationStart = System.nanoTime();
+            insertOnce(documents);
+            latencies.recordSince(operationStart);
+        }
+        long timeTaken = System.currentTimeMillis() - startTime;
+        allocations.stop(NUMBER_OF_DOCUMENTS);
+        collection.drop();
+
+        EncodingResult result = new EncodingResult(encoder, shape, timeTaken, allocations);
+        results.add(result);
+        System.out.printf("%s: %.0f documents per second%n", name, result.getDocumentsPerSecond());
+        latencies.report();
+        allocations.report(name);
+        new BenchmarkRecord(name, shape)
+                .parameter("encoder", encoder)
+                .parameter("batchSize", documents.size())
+                .operations(NUMBER_OF_DOCUMENTS, timeTaken)
+                .latencies(latencies)
+                .allocations(allocations)
+                .warmup(warmup)
+                .write();
+    }
+
+    // twice over, so that the second time every field name comes from the cache
+    private static void verifyEncoding(final DBEncoderFactory encoderFactory, final List<DBObject> documents) {
+        for (int pass = 0; pass < 2; pass++) {
+            for (DBObject document : documents) {
+                byte[] expected = encode(DefaultDBEncoder.FACTORY.create(), document);
+                byte[] actual = encode(encoderFactory.create(), document);
+                if (!Arrays.equals(expected, actual)) {
+                    throw new IllegalStateException(encoderFactory + " encoded " + document + " differently from the default encoder");
+                }
+            }
+        }
+    }
+
+    private static byte[] encode(final DBEncoder encoder, final DBObject document) {
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        encoder.writeObject(buffer, document);
+        return buffer.toByteArray();
+    }
+
+    private void insertOnce(final List<DBObject> documents) {
+        for (DBObject document : documents) {
+            document.removeField("_id");
+        }
+        collection.insert(documents);
+    }
+
+    private void printResults() {
+        System.out.printf("Test,Encoder,Documents,Docs per Second,Time Taken Millis,Allocated Bytes per Doc,GC Count,GC Millis, %n");
+        for (EncodingResult result : results) {
+            System.out.printf("Encode Insert,%s,%s,%.0f,%d,%.0f,%d,%d, %n", result.encoder, result.shape,
+                              result.getDocumentsPerSecond(), result.timeTaken, result.allocatedBytesPerDocument, result.gcCount,
+                              result.gcMillis);
+        }
+    }
+
+    private static final class EncodingResult {
+        private final String encoder;
+        private final String shape;
+        private final long timeTaken;
+        private final double allocatedBytesPerDocument;
+        private final long gcCount;
+        private final long gcMillis;
+
+        private EncodingResult(final String encoder, final String shape, final long timeTaken, final AllocationMonitor allocations) {
+            this.encoder = encoder;
+            this.shape = shape;
+            this.timeTaken = timeTaken;
+            this.allocatedBytesPerDocument = allocations.getAllocatedBytesPerOperation();
+            this.gcCount = allocations.getGcCount();
+            this.gcMillis = allocations.getGcMillis();
+        }
+
+        double getDocumentsPerSecond() {
+            return NUMBER_OF_DOCUMENTS * NUM_MILLIS_IN_SECOND / Math.max(1, timeTaken);
+        }
+    }
+}
@@ -0,0 +1,403 @@
+/*
+ * Copyright (c) 2008-2014 MongoDB, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mongodb.perf;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.Fixture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Queries by fields other than {@code _id}, with equality and range predicates, without an index, with a single field index,
+ * with a compound index and as a covered query, and measures what each extra index costs an insert.  Before each query is timed
+ * its plan is checked with {@code explain()}, so a benchmark that meant to use an index can't quietly measure a collection scan;
+ * if the server's explain output isn't understood, the check is skipped with a warning.
+ *
+ * <p>Every document has a unique {@code sku}, a {@code category} shared by 1% of the documents, a {@code price} shared by 0.01%
+ * and a {@code name}.</p>
+ */
+public class IndexPerformanceTest {
+    private static final int NUMBER_OF_DOCUMENTS = 100_000;
+    private static final int NUMBER_OF_CATEGORIES = 100;
+    private static final int NUMBER_OF_PRICES = 10_000;
+    private static final int PRICE_RANGE = 5;
+    // one price in a hundred has the queried category, so this matches as many documents as PRICE_RANGE does without it
+    private static final int COMPOUND_PRICE_RANGE = 500;
+    // more than any query matches, so it doesn't change what the server does, but it bounds the results of a fake server,
+    // which ignores the criteria
+    private static final int MAX_DOCUMENTS_PER_QUERY = 100;
+    private static final int NUMBER_OF_OPERATIONS = 10_000;
+    // a collection scan reads every document, so far fewer are run
+    private static final int NUMBER_OF_COLLECTION_SCANS = 200;
+    private static final int NUMBER_OF_INSERTS = 20_000;
+    private static final long SEED = 42;
+    private static final double NUM_MILLIS_IN_SECOND = 1000;
+    private static final String DOCUMENT_SHAPE = "3 int fields and 1 string field";
+    private static final DBObject[] INDEXES = {
+        new BasicDBObject("sku", 1),
+        new BasicDBObject("price", 1),
+        new BasicDBObject("category", 1).append("price", 1),
+        new BasicDBObject("name", 1),
+        new BasicDBObject("sku", 1).append("name", 1)
+    };
+
+    private DB database;
+    private DBCollection collection;
+    @SuppressWarnings("PublicField")
+    public long fieldCountToAvoidOptimization;
+
+    @Before
+    public void setUp() {
+        database = Fixture.getDefaultDatabase();
+        collection = database.getCollection(this.getClass().getName());
+        collection.drop();
+    }
+
+    @After
+    public void tearDown() {
+        if (collection != null) {
+            collection.drop();
+        }
+        if (database != null) {
+            database.dropDatabase();
+        }
+    }
+
+    @Test
+    public void testEqualityQueryWithoutIndex() {
+        populateCollection();
+        query("Query Equality No Index", NUMBER_OF_COLLECTION_SCANS, equalityOnSku(), null, null, false);
+    }
+
+    @Test
+    public void testRangeQueryWithoutIndex() {
+        populateCollection();
+        query("Query Range No Index", NUMBER_OF_COLLECTION_SCANS, rangeOnPrice(), null, null, false);
+    }
+
+    @Test
+    public void testEqualityQueryWithSingleFieldIndex() {
+        populateCollection();
+        DBObject index = new BasicDBObject("sku", 1);
+        collection.createIndex(index);
+        query("Query Equality Single Field Index", NUMBER_OF_OPERATIONS, equalityOnSku(), null, index, false);
+    }
+
+    @Test
+    public void testRangeQueryWithSingleFieldIndex() {
+        populateCollection();
+        DBObject index = new BasicDBObject("price", 1);
+        collection.createIndex(index);
+        query("Query Range Single Field Index", NUMBER_OF_OPERATIONS, rangeOnPrice(), null, index, false);
+    }
+
+    @Test
+    public void testEqualityAndRangeQueryWithCompoundIndex() {
+        populateCollection();
+        DBObject index = new BasicDBObject("category", 1).append("price", 1);
+        collection.createIndex(index);
+        QueryFactory categoryAndPriceRange = new QueryFactory() {
+            @Override
+            public DBObject createQuery(final Random random) {
+                int price = random.nextInt(NUMBER_OF_PRICES - COMPOUND_PRICE_RANGE);
+                return new BasicDBObject("category", random.nextInt(NUMBER_OF_CATEGORIES))
+                       .append("price", new BasicDBObject("$gte", price).append("$lt", price + COMPOUND_PRICE_RANGE));
+            }
+        };
+        query("Query Equality and Range Compound Index", NUMBER_OF_OPERATIONS, categoryAndPriceRange, null, index, false);
+    }
+
+    @Test
+    public void testCoveredQuery() {
+        populateCollection();
+        DBObject index = new BasicDBObject("sku", 1).append("name", 1);
+        collection.createIndex(index);
+        DBObject projection = new BasicDBObject("sku", 1).append("name", 1).append("_id", 0);
+        query("Query Covered", NUMBER_OF_OPERATIONS, equalityOnSku(), projection, index, true);
+    }
+
+    @Test
+    public void testInsertCostOfEachIndex() {
+        final DBObject document = new BasicDBObject();
+        List<IndexCost> costs = new ArrayList<IndexCost>();
+        SteadyStateWarmup warmup = SteadyStateWarmup.onScratchCollection("Insert", collection,
+                                                                         new SteadyStateWarmup.ScratchCollectionWorkload() {
+            @Override
+            public void execute(final DBCollection scratchCollection, final int operation) {
+                insert(scratchCollection, document, operation);
+            }
+        });
+        for (int numberOfIndexes = 0; numberOfIndexes <= INDEXES.length; numberOfIndexes++) {
+            collection.drop();
+            for (int i = 0; i < numberOfIndexes; i++) {
+                collection.createIndex(INDEXES[i]);
+            }
+            System.gc();
+            System.gc();
+
+            LatencyHistogram latencies = new LatencyHistogram("Insert with " + numberOfIndexes + " Secondary Indexes");
+            AllocationMonitor allocations = AllocationMonitor.start();
+            long startTime = System.currentTimeMillis();
+            insert(NUMBER_OF_INSERTS, document, latencies);
+            long timeTaken = System.currentTimeMillis() - startTime;
+            allocations.stop(NUMBER_OF_INSERTS);
+
+            costs.add(new IndexCost(numberOfIndexes, NUMBER_OF_INSERTS * NUM_MILLIS_IN_SECOND / Math.max(1, timeTaken),
+                                    latencies.getPercentileMicros(99)));
+            latencies.report();
+            allocations.report(latencies.getName());
+            new BenchmarkRecord(latencies.getName(), DOCUMENT_SHAPE)
+                    .parameter("secondaryIndexes", numberOfIndexes)
+                    .parameter("lastIndexAdded", numberOfIndexes == 0 ? "none" : INDEXES[numberOfIndexes - 1].toString())
+                    .operations(NUMBER_OF_INSERTS, timeTaken).latencies(latencies).allocations(allocations).warmup(warmup).write();
+        }
+
+        System.out.printf("Test,Secondary Indexes,Last Index Added,Ops per Second,Change from No Indexes %%,p99 Micros, %n");
+        double baseline = costs.get(0).operationsPerSecond;
+        for (IndexCost cost : costs) {
+            System.out.printf("Insert Index Cost,%d,%s,%.0f,%.1f,%.1f, %n", cost.numberOfIndexes,
+                              cost.numberOfIndexes == 0 ? "" : INDEXES[cost.numberOfIndexes - 1].toString().replace(',', ';'),
+                              cost.operationsPerSecond, 100 * (cost.operationsPerSecond - baseline) / baseline, cost.p99Micros);
+        }
+    }
+
+    private void insert(final int numberOfInserts, final DBObject document, final LatencyHistogram latencies) {
+        for (int i = 0; i < numberOfInserts; i++) {
+            long operationStart = System.nanoTime();
+            insert(collection, document, i);
+            latencies.recordSince(operationStart);
+        }
+    }
+
+    private static void insert(final DBCollection target, final DBObject document, final int i) {
+        document.removeField("_id");
+        document.put("sku", i);
+        document.put("category", i % NUMBER_OF_CATEGORIES);
+        document.put("price", i % NUMBER_OF_PRICES);
+        document.put("name", "name " + i);
+        target.insert(document);
+    }
+
+    private void query(final String name, final int numberOfOperations, final QueryFactory queries, final DBObject projection,
+                       final DBObject expectedIndex, final boolean expectCovered) {
+        verifyPlan(name, queries.createQuery(new Random(SEED)), projection, expectedIndex, expectCovered);
+
+        // warmup with a different seed, so the measured queries don't all find their documents in cache
+        final Random warmupRandom = new Random(SEED + 1);
+        SteadyStateWarmup warmup = SteadyStateWarmup.run(name, new Workload() {
+            @Override
+            public void execute(final int threadIndex, final int operation) {
+                runQuery(queries.createQuery(warmupRandom), projection);
+            }
+        });
+        System.gc();
+        System.gc();
+
+        LatencyHistogram latencies = new LatencyHistogram(name);
+        AllocationMonitor allocations = AllocationMonitor.start();
+        long startTime = System.currentTimeMillis();
+        long documentsFound = runQueries(numberOfOperations, queries, projection, new Random(SEED), latencies);
+        long endTime = System.currentTimeMillis();
+        allocations.stop(numberOfOperations);
+
+        long timeTaken = endTime - startTime;
+        double operationsPerSecond = (NUM_MILLIS_IN_SECOND / timeTaken) * numberOfOperations;
+        System.out.printf("Test,Index,Ops per Second,Documents per Query,Time Taken Millis, %n");
+        System.out.printf("%s,%s,%.0f,%.1f,%d, %n", name, expectedIndex == null ? "none" : expectedIndex.toString().replace(',', ';'),
+                          operationsPerSecond, (double) documentsFound / numberOfOperations, timeTaken);
+        latencies.report();
+        allocations.report(latencies.getName());
+        new BenchmarkRecord(latencies.getName(), DOCUMENT_SHAPE)
+                .parameter("index", expectedIndex == null ? "none" : expectedIndex.toString())
+                .parameter("covered", expectCovered)
+                .operations(numberOfOperations, timeTaken).latencies(latencies).allocations(allocations)
+                .metric("documentsPerQuery", (double) documentsFound / numberOfOperations)
+                .warmup(warmup)
+                .write();
+    }
+
+    private long runQueries(final int numberOfOperations, final QueryFactory queries, final DBObject projection,
+                            final Random random, final LatencyHistogram latencies) {
+        long documentsFound = 0;
+        for (int i = 0; i < numberOfOperations; i++) {
+            DBObject query = queries.createQuery(random);
+            long operationStart = System.nanoTime();
+            documentsFound += runQuery(query, projection);
+            latencies.recordSince(operationStart);
+        }
+        return documentsFound;
+    }
+
+    private int runQuery(final DBObject query, final DBObject projection) {
+        int documentsFound = 0;
+        DBCursor cursor = collection.find(query, projection).limit(MAX_DOCUMENTS_PER_QUERY);
+        try {
+            while (cursor.hasNext()) {
+                fieldCountToAvoidOptimization += cursor.next().keySet().size();
+                documentsFound++;
+            }
+        } finally {
+            cursor.close();
+        }
+        return documentsFound;
+    }
+
+    private void verifyPlan(final String name, final DBObject query, final DBObject projection, final DBObject expectedIndex,
+                            final boolean expectCovered) {
+        QueryPlan plan = QueryPlan.of(collection.find(query, projection).limit(MAX_DOCUMENTS_PER_QUERY).explain());
+        if (plan == null) {
+            System.out.printf("WARNING: %s: couldn't read the query plan, so it is unverified%n", name);
+            return;
+        }
+        String expectedIndexName = expectedIndex == null ? null : getIndexName(expectedIndex);
+        boolean expectedIndexUsed = expectedIndexName == null ? plan.indexName == null : expectedIndexName.equals(plan.indexName);
+        if (!expectedIndexUsed || expectCovered != plan.covered) {
+            throw new IllegalStateException(String.format("%s expected %s%s but the plan was %s", name,
+                                                          expectedIndexName == null ? "a collection scan" : expectedIndexName,
+                                                          expectCovered ? ", covered," : "", plan));
+        }
+        System.out.printf("%s plan: %s%n", name, plan);
+    }
+
+    // the name the server gives an index by default, e.g. sku_1_price_-1
+    private static String getIndexName(final DBObject keys) {
+        StringBuilder name = new StringBuilder();
+        for (String key : keys.keySet()) {
+            if (name.length() != 0) {
+                name.append('_');
+            }
+            name.append(key).append('_').append(keys.get(key));
+        }
+        return name.toString();
+    }
+
+    private void populateCollection() {
+        new BulkLoader(collection).load(NUMBER_OF_DOCUMENTS, new BulkLoader.DocumentSource() {
+            @Override
+            public DBObject createDocument(final int id) {
+                return new BasicDBObject("_id", id)
+                       .append("sku", id)
+                       .append("category", id % NUMBER_OF_CATEGORIES)
+                       .append("price", id % NUMBER_OF_PRICES)
+                       .append("name", "name " + id);
+            }
+        });
+    }
+
+    private static QueryFactory equalityOnSku() {
+        return new QueryFactory() {
+            @Override
+            public DBObject createQuery(final Random random) {
+                return new BasicDBObject("sku", random.nextInt(NUMBER_OF_DOCUMENTS));
+            }
+        };
+    }
+
+    private static QueryFactory rangeOnPrice() {
+        return new QueryFactory() {
+            @Override
+            public DBObject createQuery(final Random random) {
+                int price = random.nextInt(NUMBER_OF_PRICES - PRICE_RANGE);
+                return new BasicDBObject("price", new BasicDBObject("$gte", price).append("$lt", price + PRICE_RANGE));
+            }
+        };
+    }
+
+    private interface QueryFactory {
+        DBObject createQuery(Random random);
+    }
+
+    /**
+     * The parts of a query plan that matter here, read from the explain output of either a 2.x server ({@code cursor} and
+     * {@code indexOnly}) or a 3.x server (the stages of {@code queryPlanner.winningPlan}).
+     */
+    private static final class QueryPlan {
+        private final String indexName;
+        private final boolean covered;
+
+        private QueryPlan(final String indexName, final boolean covered) {
+            this.indexName = indexName;
+            this.covered = covered;
+        }
+
+        /**
+         * @return the plan, or null if the explain output is in neither form
+         */
+        static QueryPlan of(final DBObject explain) {
+            Object cursor = explain.get("cursor");
+            if (cursor instanceof String) {
+                String cursorName = (String) cursor;
+                String indexName = cursorName.startsWith("BtreeCursor ") ? cursorName.substring("BtreeCursor ".length()) : null;
+                return new QueryPlan(indexName, Boolean.TRUE.equals(explain.get("indexOnly")));
+            }
+            DBObject queryPlanner = (DBObject) explain.get("queryPlanner");
+            if (queryPlanner != null && queryPlanner.get("winningPlan") instanceof DBObject) {
+                List<DBObject> stages = new ArrayList<DBObject>();
+                addStages((DBObject) queryPlanner.get("winningPlan"), stages);
+                String indexName = null;
+                boolean fetched = false;
+                for (DBObject stage : stages) {
+                    if ("IXSCAN".equals(stage.get("stage"))) {
+                        indexName = (String) stage.get("indexName");
+                    } else if ("FETCH".equals(stage.get("stage")) || "COLLSCAN".equals(stage.get("stage"))) {
+                        fetched = true;
+                    }
+                }
+                return new QueryPlan(indexName, indexName != null && !fetched);
+            }
+            return null;
+        }
+
+        private static void addStages(final DBObject stage, final List<DBObject> stages) {
+            stages.add(stage);
+            if (stage.get("inputStage") instanceof DBObject) {
+                addStages((DBObject) stage.get("inputStage"), stages);
+            }
+            if (stage.get("inputStages") instanceof List) {
+                for (Object inputStage : (List<?>) stage.get("inputStages")) {
+                    addStages((DBObject) inputStage, stages);
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return (indexName == null ? "collection scan" : "index " + indexName) + (covered ? ", covered" : "");
+        }
+    }
+
+    private static final class IndexCost {
+        private final int numberOfIndexes;
+        private final double operationsPerSecond;
+        private final double p99Micros;
+
+        private IndexCost(final int numberOfIndexes, final double operationsPerSecond, final double p99Micros) {
+            this.numberOfIndexes = numberOfIndexes;
+            this.operationsPerSecond = operationsPerSecond;
+            this.p99Micros = p99Micros;
+        }
+    }
+}
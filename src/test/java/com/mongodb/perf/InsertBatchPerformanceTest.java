@@ -2,6 +2,10 @@ import com.mongodb.BasicDBObject;
 import com.mongodb.DBCollection;
 import com.mongodb.DBObject;
 import com.mongodb.MongoClient;
+import com.mongodb.perf.AllocationMonitor;
+import com.mongodb.perf.BenchmarkRecord;
+import com.mongodb.perf.DocumentGenerator;
+import com.mongodb.perf.LatencyHistogram;
 import org.junit.Test;
 
 import java.net.UnknownHostException;
@@ -31,42 +35,95 @@ public class InsertBatchPerformanceTest {
 
             // warmup Java
             for (int i = 0; i < 100; i++) {
-                benchmark(coll, createDocumentList(5, 1000), 1);
+                warmup(coll, createDocumentList(5, 1000), 1);
             }
 
             System.out.println("Starting benchmark");
             System.out.println();
             System.out.println();
 
-            benchmark(coll, createDocumentList(documentSize, 1), count);
-            benchmark(coll, createDocumentList(documentSize, 10), count / 10);
-            benchmark(coll, createDocumentList(documentSize, 1000), count / 1000);
-            benchmark(coll, createDocumentList(documentSize, 10000), count / 10000);
+            benchmark(coll, createDocumentList(documentSize, 1), count).write();
+            benchmark(coll, createDocumentList(documentSize, 10), count / 10).write();
+            benchmark(coll, createDocumentList(documentSize, 1000), count / 1000).write();
+            benchmark(coll, createDocumentList(documentSize, 10000), count / 10000).write();
+        } finally {
+            mongoClient.close();
+        }
+
+    }
+
+    @Test
+    public void shouldInsertNestedDocuments() throws UnknownHostException {
+        MongoClient mongoClient = new MongoClient();
+        try {
+            DBCollection coll = mongoClient.getDB("test").getCollection("test");
+
+            int count = 20000;
+
+            // warmup Java
+            List<DBObject> warmupDocuments = DocumentGenerator.nested(1024).generate(100);
+            for (int i = 0; i < 100; i++) {
+                warmup(coll, warmupDocuments, 1);
+            }
+
+            for (int documentSize : new int[]{4 * 1024, 16 * 1024}) {
+                DocumentGenerator generator = DocumentGenerator.nested(documentSize);
+                for (int batchSize : new int[]{1, 100, 1000}) {
+                    benchmark(coll, generator.generate(batchSize), count / batchSize, documentSize, generator.getShape()).write();
+                }
+            }
         } finally {
             mongoClient.close();
         }
+    }
 
+    public static BenchmarkRecord benchmark(final DBCollection collection, final List<DBObject> documents, final int batchCount) {
+        int documentSize = ((String) documents.get(0).get("filler")).length();
+        return benchmark(collection, documents, batchCount, documentSize,
+                         format("1 filler string field of %d chars", documentSize));
     }
 
-    public static void benchmark(final DBCollection collection, final List<DBObject> documents, final int batchCount) {
-        out.println(format("Benchmarking documentSize=%d batchSize=%d", ((String) documents.get(0).get("filler")).length(),
-                           documents.size()));
+    public static BenchmarkRecord benchmark(final DBCollection collection, final List<DBObject> documents, final int batchCount,
+                                            final int documentSize, final String documentShape) {
+        out.println(format("Benchmarking documentSize=%d batchSize=%d", documentSize, documents.size()));
 
         collection.drop();
 
+        LatencyHistogram latencies = new LatencyHistogram(format("Insert batch documentSize=%d batchSize=%d",
+                                                                 documentSize, documents.size()));
+        AllocationMonitor allocations = AllocationMonitor.start();
         long startTime = System.currentTimeMillis();
 
         for (int i = 0; i < batchCount; i++) {
             removeDocumentIds(documents);
+            long operationStart = System.nanoTime();
             collection.insert(documents);
+            latencies.recordSince(operationStart);
         }
 
         long elapsed = System.currentTimeMillis() - startTime;
+        allocations.stop((long) batchCount * documents.size());
         long count = collection.count();
         out.println("Count: " + count);
         out.println(format("Duration = %d Speed=%2$,.2f/second", elapsed, count / (elapsed / 1000.0)));
         out.println();
+        latencies.printPercentiles();
+        allocations.report(latencies.getName());
+        return new BenchmarkRecord(latencies.getName(), documentShape)
+               .parameter("batchSize", documents.size())
+               .serverVersion(collection.getDB())
+               .metric("meanDocumentSizeBytes", DocumentGenerator.getMeanEncodedSize(documents))
+               .operations(count, elapsed).latencies(latencies).allocations(allocations);
+    }
 
+    // the inserts of benchmark without its histogram or allocation monitor, which forces full collections each time it starts and
+    // stops
+    private static void warmup(final DBCollection collection, final List<DBObject> documents, final int batchCount) {
+        collection.drop();
+        for (int i = 0; i < batchCount; i++) {
+            removeDocumentIds(documents);
+            collection.insert(documents);
+        }
     }
 
     private static void removeDocumentIds(final List<DBObject> documents) {
@@ -49,29 +49,35 @@ public class InsertPerformanceTest {
         }
     }
 
-    private void warmup(int numberOfRuns, final DBObject document) {
-        for (int i = 0; i < numberOfRuns; i++) {
-            document.removeField("_id");
-            collection.insert(document);
-        }
-        System.gc();
-        System.gc();
+    private SteadyStateWarmup warmup(final DBObject document) {
+        return SteadyStateWarmup.onScratchCollection("Insert", collection, new SteadyStateWarmup.ScratchCollectionWorkload() {
+            @Override
+            public void execute(final DBCollection scratchCollection, final int operation) {
+                document.removeField("_id");
+                scratchCollection.insert(document);
+            }
+        });
     }
 
     @Test
     public void shouldInsertString() {
         // Given
         DBObject document = new BasicDBObject("name", "String value");
-        warmup(10000, document);
-        collection.remove(new BasicDBObject());
+        SteadyStateWarmup warmup = warmup(document);
+
+        LatencyHistogram latencies = new LatencyHistogram("Insert Single String field");
 
         // When
+        AllocationMonitor allocations = AllocationMonitor.start();
         long startTime = System.currentTimeMillis();
         for (int i = 0; i < NUMBER_OF_OPERATIONS; i++) {
             document.removeField("_id");
+            long operationStart = System.nanoTime();
             collection.insert(document);
+            latencies.recordSince(operationStart);
         }
         long endTime = System.currentTimeMillis();
+        allocations.stop(NUMBER_OF_OPERATIONS);
 
         // Then
         long timeTaken = endTime - startTime;
@@ -81,6 +87,43 @@ public class InsertPerformanceTest {
         System.out.printf("%.0f ops per second%n", operationsPerSecond);
         System.out.printf("Test,Ops per Second,Time Taken Millis, %n");
         System.out.printf("Single String field,%.0f,%d, %n", operationsPerSecond, timeTaken);
+        latencies.report();
+        allocations.report(latencies.getName());
+        new BenchmarkRecord(latencies.getName(), "1 string field")
+                .operations(NUMBER_OF_OPERATIONS, timeTaken).latencies(latencies).allocations(allocations).warmup(warmup).write();
+    }
+
+    // the same as shouldInsertString, but with a new document for every insert, to show the cost of not reusing it
+    @Test
+    public void shouldInsertStringInNewDocument() {
+        // Given
+        SteadyStateWarmup warmup = warmup(new BasicDBObject("name", "String value"));
+
+        LatencyHistogram latencies = new LatencyHistogram("Insert Single String field new document");
+
+        // When
+        AllocationMonitor allocations = AllocationMonitor.start();
+        long startTime = System.currentTimeMillis();
+        for (int i = 0; i < NUMBER_OF_OPERATIONS; i++) {
+            long operationStart = System.nanoTime();
+            collection.insert(new BasicDBObject("name", "String value"));
+            latencies.recordSince(operationStart);
+        }
+        long endTime = System.currentTimeMillis();
+        allocations.stop(NUMBER_OF_OPERATIONS);
+
+        // Then
+        long timeTaken = endTime - startTime;
+        System.out.printf("Time taken: %d millis\n", timeTaken);
+        System.out.printf("Test took: %,.3f seconds\n", timeTaken / NUM_MILLIS_IN_SECOND);
+        double operationsPerSecond = (NUM_MILLIS_IN_SECOND / timeTaken) * NUMBER_OF_OPERATIONS;
+        System.out.printf("%.0f ops per second%n", operationsPerSecond);
+        System.out.printf("Test,Ops per Second,Time Taken Millis, %n");
+        System.out.printf("Single String field new document,%.0f,%d, %n", operationsPerSecond, timeTaken);
+        latencies.report();
+        allocations.report(latencies.getName());
+        new BenchmarkRecord(latencies.getName(), "1 string field")
+                .operations(NUMBER_OF_OPERATIONS, timeTaken).latencies(latencies).allocations(allocations).warmup(warmup).write();
     }
 
     @Test
@@ -90,16 +133,21 @@ public class InsertPerformanceTest {
         for (int i = 0; i < 100; i++) {
             document.put("field"+i, "value "+i);
         }
-        warmup(10000, document);
-        collection.remove(new BasicDBObject());
+        SteadyStateWarmup warmup = warmup(document);
+
+        LatencyHistogram latencies = new LatencyHistogram("Insert 100 String fields");
 
         // When
+        AllocationMonitor allocations = AllocationMonitor.start();
         long startTime = System.currentTimeMillis();
         for (int i = 0; i < NUMBER_OF_OPERATIONS; i++) {
             document.removeField("_id");
+            long operationStart = System.nanoTime();
             collection.insert(document);
+            latencies.recordSince(operationStart);
         }
         long endTime = System.currentTimeMillis();
+        allocations.stop(NUMBER_OF_OPERATIONS);
 
         // Then
         long timeTaken = endTime - startTime;
@@ -109,22 +157,31 @@ public class InsertPerformanceTest {
         System.out.printf("%.0f ops per second%n", operationsPerSecond);
         System.out.printf("Test,Ops per Second,Time Taken Millis, %n");
         System.out.printf("Single String field,%.0f,%d, %n", operationsPerSecond, timeTaken);
+        latencies.report();
+        allocations.report(latencies.getName());
+        new BenchmarkRecord(latencies.getName(), "100 string fields")
+                .operations(NUMBER_OF_OPERATIONS, timeTaken).latencies(latencies).allocations(allocations).warmup(warmup).write();
     }
 
     @Test
     public void shouldInsertInt() {
         // Given
         DBObject document = new BasicDBObject("name", 1);
-        warmup(10000, document);
-        collection.remove(new BasicDBObject());
+        SteadyStateWarmup warmup = warmup(document);
+
+        LatencyHistogram latencies = new LatencyHistogram("Insert Single Int field");
 
         // When
+        AllocationMonitor allocations = AllocationMonitor.start();
         long startTime = System.currentTimeMillis();
         for (int i = 0; i < NUMBER_OF_OPERATIONS; i++) {
             document.removeField("_id");
+            long operationStart = System.nanoTime();
             collection.insert(document);
+            latencies.recordSince(operationStart);
         }
         long endTime = System.currentTimeMillis();
+        allocations.stop(NUMBER_OF_OPERATIONS);
 
         // Then
         long timeTaken = endTime - startTime;
@@ -134,6 +191,10 @@ public class InsertPerformanceTest {
         System.out.printf("%.0f ops per second%n", operationsPerSecond);
         System.out.printf("Test,Ops per Second,Time Taken Millis, %n");
         System.out.printf("Single String field,%.0f,%d, %n", operationsPerSecond, timeTaken);
+        latencies.report();
+        allocations.report(latencies.getName());
+        new BenchmarkRecord(latencies.getName(), "1 int field")
+                .operations(NUMBER_OF_OPERATIONS, timeTaken).latencies(latencies).allocations(allocations).warmup(warmup).write();
     }
 
     @Test
@@ -143,16 +204,21 @@ public class InsertPerformanceTest {
         for (int i = 0; i < 100; i++) {
             document.put("field"+i, i);
         }
-        warmup(10000, document);
-        collection.remove(new BasicDBObject());
+        SteadyStateWarmup warmup = warmup(document);
+
+        LatencyHistogram latencies = new LatencyHistogram("Insert 100 Int fields");
 
         // When
+        AllocationMonitor allocations = AllocationMonitor.start();
         long startTime = System.currentTimeMillis();
         for (int i = 0; i < NUMBER_OF_OPERATIONS; i++) {
             document.removeField("_id");
+            long operationStart = System.nanoTime();
             collection.insert(document);
+            latencies.recordSince(operationStart);
         }
         long endTime = System.currentTimeMillis();
+        allocations.stop(NUMBER_OF_OPERATIONS);
 
         // Then
         long timeTaken = endTime - startTime;
@@ -162,5 +228,56 @@ public class InsertPerformanceTest {
         System.out.printf("%.0f ops per second%n", operationsPerSecond);
         System.out.printf("Test,Ops per Second,Time Taken Millis, %n");
         System.out.printf("Single String field,%.0f,%d, %n", operationsPerSecond, timeTaken);
+        latencies.report();
+        allocations.report(latencies.getName());
+        new BenchmarkRecord(latencies.getName(), "100 int fields")
+                .operations(NUMBER_OF_OPERATIONS, timeTaken).latencies(latencies).allocations(allocations).warmup(warmup).write();
+    }
+
+    @Test
+    public void shouldInsertNestedDocumentOf4KB() {
+        insertNestedDocument(4 * 1024);
+    }
+
+    @Test
+    public void shouldInsertNestedDocumentOf16KB() {
+        insertNestedDocument(16 * 1024);
+    }
+
+    private void insertNestedDocument(final int sizeInBytes) {
+        // Given
+        DocumentGenerator generator = DocumentGenerator.nested(sizeInBytes);
+        DBObject document = generator.generate();
+        // measured before the inserts add an _id to the document
+        int documentSize = DocumentGenerator.getEncodedSize(document);
+        SteadyStateWarmup warmup = warmup(document);
+
+        LatencyHistogram latencies = new LatencyHistogram("Insert Nested Document " + sizeInBytes + " bytes");
+
+        // When
+        AllocationMonitor allocations = AllocationMonitor.start();
+        long startTime = System.currentTimeMillis();
+        for (int i = 0; i < NUMBER_OF_OPERATIONS; i++) {
+            document.removeField("_id");
+            long operationStart = System.nanoTime();
+            collection.insert(document);
+            latencies.recordSince(operationStart);
+        }
+        long endTime = System.currentTimeMillis();
+        allocations.stop(NUMBER_OF_OPERATIONS);
+
+        // Then
+        long timeTaken = endTime - startTime;
+        System.out.printf("Time taken: %d millis\n", timeTaken);
+        System.out.printf("Test took: %,.3f seconds\n", timeTaken / NUM_MILLIS_IN_SECOND);
+        double operationsPerSecond = (NUM_MILLIS_IN_SECOND / timeTaken) * NUMBER_OF_OPERATIONS;
+        System.out.printf("%.0f ops per second%n", operationsPerSecond);
+        System.out.printf("Test,Ops per Second,Time Taken Millis, %n");
+        System.out.printf("%s,%.0f,%d, %n", latencies.getName(), operationsPerSecond, timeTaken);
+        latencies.report();
+        allocations.report(latencies.getName());
+        new BenchmarkRecord(latencies.getName(), generator.getShape())
+                .operations(NUMBER_OF_OPERATIONS, timeTaken).latencies(latencies).allocations(allocations).warmup(warmup)
+                .metric("documentSizeBytes", documentSize).write();
     }
 }
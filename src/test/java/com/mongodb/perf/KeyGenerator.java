@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2008-2014 MongoDB, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mongodb.perf;
+
+import java.util.Random;
+
+/**
+ * Chooses which of the keys {@code 0} to {@code keyCount - 1} an operation touches, following the request distributions of the
+ * Yahoo! Cloud Serving Benchmark.  The key count may grow between calls as documents are inserted.  Generators are safe to share
+ * between threads; each thread passes its own {@code Random}.
+ */
+public abstract class KeyGenerator {
+    // the skew YCSB uses, under which roughly 20% of the keys get 80% of the requests
+    static final double ZIPFIAN_CONSTANT = 0.99;
+
+    private final String name;
+
+    KeyGenerator(final String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return every key is equally likely
+     */
+    public static KeyGenerator uniform() {
+        return new KeyGenerator("uniform") {
+            @Override
+            public long nextKey(final long keyCount, final Random random) {
+                return (long) (random.nextDouble() * keyCount);
+            }
+        };
+    }
+
+    /**
+     * @return a few keys, the lowest, are very popular and most are rarely touched
+     */
+    public static KeyGenerator zipfian() {
+        final Zipfian zipfian = new Zipfian();
+        return new KeyGenerator("zipfian") {
+            @Override
+            public long nextKey(final long keyCount, final Random random) {
+                return zipfian.next(keyCount, random);
+            }
+        };
+    }
+
+    /**
+     * @return the most recently inserted keys are the most popular, with the same skew as {@link #zipfian()}
+     */
+    public static KeyGenerator latest() {
+        final Zipfian zipfian = new Zipfian();
+        return new KeyGenerator("latest") {
+            @Override
+            public long nextKey(final long keyCount, final Random random) {
+                return keyCount - 1 - zipfian.next(keyCount, random);
+            }
+        };
+    }
+
+    /**
+     * @param keyCount the number of keys to choose from
+     * @param random   the source of randomness of the calling thread
+     * @return a key between {@code 0} and {@code keyCount - 1}
+     */
+    public abstract long nextKey(long keyCount, Random random);
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * The algorithm from Gray et al., "Quickly Generating Billion-Record Synthetic Databases", as used by YCSB.  The zeta
+     * constant is extended incrementally as the key count grows rather than recomputed from scratch.
+     */
+    private static final class Zipfian {
+        private static final double ZETA_2 = 1 + 1 / Math.pow(2, ZIPFIAN_CONSTANT);
+        private volatile State state = new State(0, 0);
+
+        long next(final long keyCount, final Random random) {
+            State current = state;
+            if (keyCount > current.keyCount) {
+                current = grow(keyCount);
+            }
+            double u = random.nextDouble();
+            double uz = u * current.zetaN;
+            if (uz < 1) {
+                return 0;
+            }
+            if (uz < 1 + Math.pow(0.5, ZIPFIAN_CONSTANT)) {
+                return Math.min(1, keyCount - 1);
+            }
+            long key = (long) (keyCount * Math.pow(current.eta * u - current.eta + 1, current.alpha));
+            return Math.min(key, keyCount - 1);
+        }
+
+        // a thread that saw a smaller key count than the current state, because an insert completed meanwhile, keeps using
+        // the larger state, as the distribution barely changes from one key to the next
+        private synchronized State grow(final long keyCount) {
+            State current = state;
+            if (keyCount > current.keyCount) {
+                double zetaN = current.zetaN;
+                for (long i = current.keyCount + 1; i <= keyCount; i++) {
+                    zetaN += 1 / Math.pow(i, ZIPFIAN_CONSTANT);
+                }
+                current = new State(keyCount, zetaN);
+                state = current;
+            }
+            return current;
+        }
+
+        private static final class State {
+            private final long keyCount;
+            private final double zetaN;
+            private final double alpha;
+            private final double eta;
+
+            State(final long keyCount, final double zetaN) {
+                this.keyCount = keyCount;
+                this.zetaN = zetaN;
+                this.alpha = 1 / (1 - ZIPFIAN_CONSTANT);
+                this.eta = (1 - Math.pow(2.0 / keyCount, 1 - ZIPFIAN_CONSTANT)) / (1 - ZETA_2 / zetaN);
+            }
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2008-2014 MongoDB, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mongodb.perf;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the latency of individual operations in an HdrHistogram.  Recording a value into the histogram does not allocate, so
+ * it can be done inside the measured loop.
+ *
+ * <p>Operations recorded with {@link #recordSince(long)} on a histogram from a single thread are also grouped into 100ms
+ * windows, giving a series of throughput and mean latency samples that {@link ResultsComparison} can test for significant
+ * differences between runs.  Closing a window does allocate: its two samples are boxed into lists, about twenty small objects
+ * a second, which is noise next to the operations being measured.</p>
+ *
+ * <p>Histograms are exported as HdrHistogram log files into the directory named by the {@code org.mongodb.test.histogram.dir}
+ * system property (default {@code build/histograms}), where they can be merged and compared with {@code HistogramLogProcessor}
+ * or any other HdrHistogram tooling.</p>
+ */
+public final class LatencyHistogram {
+    public static final String HISTOGRAM_DIRECTORY_SYSTEM_PROPERTY_NAME = "org.mongodb.test.histogram.dir";
+    private static final String DEFAULT_HISTOGRAM_DIRECTORY = "build/histograms";
+    private static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private static final int SIGNIFICANT_DIGITS = 3;
+    private static final double NANOS_IN_MICROSECOND = 1000.0;
+    private static final double NANOS_IN_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final long SAMPLE_WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final String name;
+    private final Histogram histogram;
+    private final boolean sampled;
+    private final List<Double> throughputSamples = new ArrayList<Double>();
+    private final List<Double> meanLatencySamples = new ArrayList<Double>();
+    private long windowStartNanos;
+    private long windowOperations;
+    private long windowLatencyNanos;
+
+    public LatencyHistogram(final String name) {
+        this(name, new Histogram(HIGHEST_TRACKABLE_NANOS, SIGNIFICANT_DIGITS), true);
+    }
+
+    private LatencyHistogram(final String name, final Histogram histogram, final boolean sampled) {
+        this.name = name;
+        this.histogram = histogram;
+        this.sampled = sampled;
+        histogram.setStartTimeStamp(System.currentTimeMillis());
+    }
+
+    /**
+     * Creates a histogram that many threads can record into at once without locking.
+     *
+     * @param name the name of the histogram
+     * @return a thread-safe histogram
+     */
+    public static LatencyHistogram concurrent(final String name) {
+        return new LatencyHistogram(name, new ConcurrentHistogram(HIGHEST_TRACKABLE_NANOS, SIGNIFICANT_DIGITS), false);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Records the time elapsed since {@code startNanos}, which must have been taken from {@link System#nanoTime()}.
+     *
+     * @param startNanos the value of {@code System.nanoTime()} before the operation started
+     */
+    public void recordSince(final long startNanos) {
+        long endNanos = System.nanoTime();
+        long latencyNanos = endNanos - startNanos;
+        recordValue(latencyNanos);
+        if (sampled) {
+            sample(startNanos, endNanos, latencyNanos);
+        }
+    }
+
+    private void sample(final long startNanos, final long endNanos, final long latencyNanos) {
+        if (windowOperations == 0 && throughputSamples.isEmpty()) {
+            windowStartNanos = startNanos;
+        }
+        windowOperations++;
+        windowLatencyNanos += latencyNanos;
+        long windowNanos = endNanos - windowStartNanos;
+        if (windowNanos >= SAMPLE_WINDOW_NANOS) {
+            throughputSamples.add(windowOperations * NANOS_IN_SECOND / windowNanos);
+            meanLatencySamples.add(windowLatencyNanos / NANOS_IN_MICROSECOND / windowOperations);
+            windowStartNanos = endNanos;
+            windowOperations = 0;
+            windowLatencyNanos = 0;
+        }
+    }
+
+    /**
+     * @param latencyNanos the latency of a single operation, in nanoseconds
+     */
+    public void recordValue(final long latencyNanos) {
+        histogram.recordValue(Math.min(latencyNanos, HIGHEST_TRACKABLE_NANOS));
+    }
+
+    /**
+     * Adds all the values recorded in {@code other} to this histogram, e.g. to merge per-thread histograms.
+     *
+     * @param other the histogram to add
+     */
+    public void add(final LatencyHistogram other) {
+        histogram.add(other.histogram);
+        histogram.setStartTimeStamp(Math.min(histogram.getStartTimeStamp(), other.histogram.getStartTimeStamp()));
+    }
+
+    public void reset() {
+        histogram.reset();
+        histogram.setStartTimeStamp(System.currentTimeMillis());
+        throughputSamples.clear();
+        meanLatencySamples.clear();
+        windowOperations = 0;
+        windowLatencyNanos = 0;
+    }
+
+    public long getTotalCount() {
+        return histogram.getTotalCount();
+    }
+
+    /**
+     * @param percentile the percentile, e.g. 99.9
+     * @return the latency at the given percentile, in microseconds
+     */
+    public double getPercentileMicros(final double percentile) {
+        return histogram.getValueAtPercentile(percentile) / NANOS_IN_MICROSECOND;
+    }
+
+    public double getMaxMicros() {
+        return histogram.getMaxValue() / NANOS_IN_MICROSECOND;
+    }
+
+    public double getMeanMicros() {
+        return histogram.getMean() / NANOS_IN_MICROSECOND;
+    }
+
+    /**
+     * @return the operations per second in each complete 100ms window, empty for a concurrent histogram
+     */
+    public List<Double> getThroughputSamples() {
+        return Collections.unmodifiableList(throughputSamples);
+    }
+
+    /**
+     * @return the mean latency in microseconds in each complete 100ms window, empty for a concurrent histogram
+     */
+    public List<Double> getMeanLatencyMicrosSamples() {
+        return Collections.unmodifiableList(meanLatencySamples);
+    }
+
+    /**
+     * @return the histogram in HdrHistogram's compressed binary form
+     */
+    public byte[] encode() {
+        ByteBuffer buffer = ByteBuffer.allocate(histogram.getNeededByteBufferCapacity());
+        int length = histogram.encodeIntoCompressedByteBuffer(buffer);
+        return Arrays.copyOf(buffer.array(), length);
+    }
+
+    /**
+     * Prints the percentiles as a CSV line in the same layout as the throughput output of the performance tests.
+     */
+    public void printPercentiles() {
+        System.out.printf("Test,Count,Mean Micros,p50 Micros,p99 Micros,p99.9 Micros,Max Micros, %n");
+        System.out.printf("%s,%d,%.1f,%.1f,%.1f,%.1f,%.1f, %n", name, getTotalCount(), getMeanMicros(),
+                          getPercentileMicros(50), getPercentileMicros(99), getPercentileMicros(99.9), getMaxMicros());
+    }
+
+    /**
+     * Writes the histogram to an HdrHistogram log file named after this histogram.
+     *
+     * @return the file that was written
+     */
+    public File export() {
+        String directoryName = System.getProperty(HISTOGRAM_DIRECTORY_SYSTEM_PROPERTY_NAME);
+        File directory = new File(directoryName == null || directoryName.length() == 0
+                                  ? DEFAULT_HISTOGRAM_DIRECTORY : directoryName);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalStateException("Unable to create histogram directory " + directory.getAbsolutePath());
+        }
+        File file = new File(directory, name.replaceAll("[^A-Za-z0-9_.-]+", "_") + "-" + System.currentTimeMillis() + ".hlog");
+        histogram.setEndTimeStamp(System.currentTimeMillis());
+        PrintStream out;
+        try {
+            out = new PrintStream(file);
+        } catch (FileNotFoundException e) {
+            throw new IllegalStateException("Unable to write histogram to " + file.getAbsolutePath(), e);
+        }
+        try {
+            HistogramLogWriter writer = new HistogramLogWriter(out);
+            writer.outputComment("[" + name + "]");
+            writer.outputLogFormatVersion();
+            writer.outputStartTime(histogram.getStartTimeStamp());
+            writer.setBaseTime(histogram.getStartTimeStamp());
+            writer.outputLegend();
+            writer.outputIntervalHistogram(histogram);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    /**
+     * Prints the percentiles and exports the histogram.
+     */
+    public void report() {
+        printPercentiles();
+        System.out.printf("Histogram written to %s%n", export().getPath());
+    }
+}
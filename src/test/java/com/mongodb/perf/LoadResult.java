@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2008-2014 MongoDB, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mongodb.perf;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The outcome of a {@link ConcurrentLoadRunner} run: aggregate throughput, how evenly the threads were served, and the merged
+ * latency histogram of every operation.
+ */
+public final class LoadResult {
+    private static final double NANOS_IN_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final String name;
+    private final int numberOfThreads;
+    private final int operationsPerThread;
+    private final long elapsedNanos;
+    private final long[] threadElapsedNanos;
+    private final LatencyHistogram latencies;
+    private final AllocationMonitor allocations;
+
+    LoadResult(final String name, final int numberOfThreads, final int operationsPerThread, final long elapsedNanos,
+               final long[] threadElapsedNanos, final LatencyHistogram latencies, final AllocationMonitor allocations) {
+        this.name = name;
+        this.numberOfThreads = numberOfThreads;
+        this.operationsPerThread = operationsPerThread;
+        this.elapsedNanos = elapsedNanos;
+        this.threadElapsedNanos = threadElapsedNanos;
+        this.latencies = latencies;
+        this.allocations = allocations;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getNumberOfThreads() {
+        return numberOfThreads;
+    }
+
+    public long getTotalOperations() {
+        return (long) numberOfThreads * operationsPerThread;
+    }
+
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+    }
+
+    public double getOperationsPerSecond() {
+        return getTotalOperations() * NANOS_IN_SECOND / elapsedNanos;
+    }
+
+    public double getThreadOperationsPerSecond(final int threadIndex) {
+        return operationsPerThread * NANOS_IN_SECOND / threadElapsedNanos[threadIndex];
+    }
+
+    public double getMinThreadOperationsPerSecond() {
+        double min = Double.MAX_VALUE;
+        for (int i = 0; i < numberOfThreads; i++) {
+            min = Math.min(min, getThreadOperationsPerSecond(i));
+        }
+        return min;
+    }
+
+    public double getMaxThreadOperationsPerSecond() {
+        double max = 0;
+        for (int i = 0; i < numberOfThreads; i++) {
+            max = Math.max(max, getThreadOperationsPerSecond(i));
+        }
+        return max;
+    }
+
+    /**
+     * Jain's fairness index over the per-thread throughput: 1.0 when every thread got the same throughput, falling towards
+     * 1/threads as a single thread dominates.
+     *
+     * @return the fairness index
+     */
+    public double getFairness() {
+        double sum = 0;
+        double sumOfSquares = 0;
+        for (int i = 0; i < numberOfThreads; i++) {
+            double throughput = getThreadOperationsPerSecond(i);
+            sum += throughput;
+            sumOfSquares += throughput * throughput;
+        }
+        return (sum * sum) / (numberOfThreads * sumOfSquares);
+    }
+
+    /**
+     * @param baseline the result of the same workload on fewer threads, usually one
+     * @return the throughput relative to perfect linear scaling of the baseline throughput
+     */
+    public double getScalingEfficiency(final LoadResult baseline) {
+        return (getOperationsPerSecond() * baseline.numberOfThreads) / (numberOfThreads * baseline.getOperationsPerSecond());
+    }
+
+    public LatencyHistogram getLatencies() {
+        return latencies;
+    }
+
+    public AllocationMonitor getAllocations() {
+        return allocations;
+    }
+}
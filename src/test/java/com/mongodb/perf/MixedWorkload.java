@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2008-2014 MongoDB, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mongodb.perf;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A YCSB-style workload: each operation is a read, update, insert, delete or short scan, picked at random in the configured
+ * proportions, against a collection of documents keyed by an integer {@code _id}, with the key picked by a {@link KeyGenerator}.
+ * Inserts add keys at the end of the key space.  Each type of operation has its own latency histogram, so a slow type can't hide
+ * behind a fast one.
+ *
+ * <pre>
+ *    MixedWorkload workload = new MixedWorkload("Workload A", collection, KeyGenerator.zipfian(), 100_000).read(0.5).update(0.5);
+ *    workload.load();
+ *    SteadyStateWarmup warmup = SteadyStateWarmup.run(workload.getName(), workload);
+ *    workload.reset();
+ *    LoadResult result = new ConcurrentLoadRunner(workload.getName(), 8).run(workload, 10_000);
+ *    workload.report(result, warmup);
+ * </pre>
+ *
+ * <p>Documents have ten 100 character fields, as YCSB's do.  An update sets one field to a new random value, so that it always
+ * modifies the document, a scan reads the documents from the chosen key onwards, and a read, update or delete of a key that has
+ * already been deleted is counted as a miss.</p>
+ */
+public final class MixedWorkload implements Workload {
+    private static final int NUMBER_OF_FIELDS = 10;
+    private static final int FIELD_LENGTH = 100;
+    private static final int DEFAULT_SCAN_LENGTH = 50;
+
+    private final String name;
+    private final DBCollection collection;
+    private final KeyGenerator keyGenerator;
+    private final long initialKeys;
+    private final Map<OperationType, Double> proportions = new EnumMap<OperationType, Double>(OperationType.class);
+    private final Map<OperationType, LatencyHistogram> latencies = new EnumMap<OperationType, LatencyHistogram>(OperationType.class);
+    private final Map<OperationType, AtomicLong> misses = new EnumMap<OperationType, AtomicLong>(OperationType.class);
+    private final AtomicLong nextInsertKey = new AtomicLong();
+    private final AtomicLong insertedKeys = new AtomicLong();
+    private final String fieldValue;
+    private int scanLength = DEFAULT_SCAN_LENGTH;
+
+    public MixedWorkload(final String name, final DBCollection collection, final KeyGenerator keyGenerator, final long initialKeys) {
+        this.name = name;
+        this.collection = collection;
+        this.keyGenerator = keyGenerator;
+        this.initialKeys = initialKeys;
+        StringBuilder builder = new StringBuilder(FIELD_LENGTH);
+        for (int i = 0; i < FIELD_LENGTH; i++) {
+            builder.append('x');
+        }
+        fieldValue = builder.toString();
+        for (OperationType type : OperationType.values()) {
+            proportions.put(type, 0.0);
+            latencies.put(type, LatencyHistogram.concurrent(name + " " + type.getName()));
+            misses.put(type, new AtomicLong());
+        }
+    }
+
+    public MixedWorkload read(final double proportion) {
+        proportions.put(OperationType.READ, proportion);
+        return this;
+    }
+
+    public MixedWorkload update(final double proportion) {
+        proportions.put(OperationType.UPDATE, proportion);
+        return this;
+    }
+
+    public MixedWorkload insert(final double proportion) {
+        proportions.put(OperationType.INSERT, proportion);
+        return this;
+    }
+
+    public MixedWorkload delete(final double proportion) {
+        proportions.put(OperationType.DELETE, proportion);
+        return this;
+    }
+
+    public MixedWorkload scan(final double proportion) {
+        proportions.put(OperationType.SCAN, proportion);
+        return this;
+    }
+
+    public MixedWorkload scanLength(final int numberOfDocuments) {
+        scanLength = numberOfDocuments;
+        return this;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public KeyGenerator getKeyGenerator() {
+        return keyGenerator;
+    }
+
+    /**
+     * @return the proportions in the form "read 0.95 insert 0.05", for reports
+     */
+    public String getMix() {
+        StringBuilder mix = new StringBuilder();
+        for (Map.Entry<OperationType, Double> proportion : proportions.entrySet()) {
+            if (proportion.getValue() > 0) {
+                mix.append(mix.length() == 0 ? "" : " ").append(proportion.getKey().getName()).append(' ')
+                   .append(proportion.getValue());
+            }
+        }
+        return mix.toString();
+    }
+
+    /**
+     * Drops the collection and inserts the initial documents, with keys {@code 0} to {@code initialKeys - 1}.
+     */
+    public void load() {
+        collection.drop();
+        new BulkLoader(collection).load((int) initialKeys, new BulkLoader.DocumentSource() {
+            @Override
+            public DBObject createDocument(final int id) {
+                return newDocument(id);
+            }
+        });
+        nextInsertKey.set(initialKeys);
+        insertedKeys.set(initialKeys);
+        reset();
+    }
+
+    /**
+     * Clears the latencies and misses, e.g. after a warmup run.
+     */
+    public void reset() {
+        for (OperationType type : OperationType.values()) {
+            latencies.get(type).reset();
+            misses.get(type).set(0);
+        }
+    }
+
+    @Override
+    public void execute(final int threadIndex, final int operation) {
+        Random random = ThreadLocalRandom.current();
+        OperationType type = chooseOperation(random);
+        long start = System.nanoTime();
+        boolean hit;
+        switch (type) {
+            case READ:
+                hit = collection.findOne(new BasicDBObject("_id", nextKey(random))) != null;
+                break;
+            case UPDATE:
+                hit = collection.update(new BasicDBObject("_id", nextKey(random)),
+                                        new BasicDBObject("$set", new BasicDBObject("field" + random.nextInt(NUMBER_OF_FIELDS),
+                                                                                    randomFieldValue(random)))).getN() > 0;
+                break;
+            case INSERT:
+                collection.insert(newDocument(nextInsertKey.getAndIncrement()));
+                insertedKeys.incrementAndGet();
+                hit = true;
+                break;
+            case DELETE:
+                hit = collection.remove(new BasicDBObject("_id", nextKey(random))).getN() > 0;
+                break;
+            case SCAN:
+                hit = scan(nextKey(random)) > 0;
+                break;
+            default:
+                throw new UnsupportedOperationException(type.toString());
+        }
+        latencies.get(type).recordSince(start);
+        if (!hit) {
+            misses.get(type).incrementAndGet();
+        }
+    }
+
+    /**
+     * Prints the throughput and latency of each type of operation over the run and writes a benchmark record for each.
+     *
+     * @param result the result of running this workload
+     * @param warmup the warmup that preceded the run
+     */
+    public void report(final LoadResult result, final SteadyStateWarmup warmup) {
+        System.out.printf("Test,Distribution,Threads,Operation,Count,Ops per Second,Mean Micros,p50 Micros,p99 Micros,"
+                          + "p99.9 Micros,Max Micros,Misses, %n");
+        for (OperationType type : OperationType.values()) {
+            LatencyHistogram histogram = latencies.get(type);
+            if (histogram.getTotalCount() == 0) {
+                continue;
+            }
+            System.out.printf("%s,%s,%d,%s,%d,%.0f,%.1f,%.1f,%.1f,%.1f,%.1f,%d, %n", name, keyGenerator, result.getNumberOfThreads(),
+                              type.getName(), histogram.getTotalCount(),
+                              histogram.getTotalCount() * 1000.0 / Math.max(1, result.getElapsedMillis()),
+                              histogram.getMeanMicros(), histogram.getPercentileMicros(50), histogram.getPercentileMicros(99),
+                              histogram.getPercentileMicros(99.9), histogram.getMaxMicros(), misses.get(type).get());
+            histogram.export();
+            new BenchmarkRecord(histogram.getName(), NUMBER_OF_FIELDS + " string fields")
+                    .threads(result.getNumberOfThreads())
+                    .parameter("distribution", keyGenerator.getName())
+                    .parameter("mix", getMix())
+                    .operations(histogram.getTotalCount(), result.getElapsedMillis())
+                    .latencies(histogram)
+                    .metric("misses", misses.get(type).get())
+                    .warmup(warmup)
+                    .write();
+        }
+    }
+
+    private OperationType chooseOperation(final Random random) {
+        double total = 0;
+        for (double proportion : proportions.values()) {
+            total += proportion;
+        }
+        double choice = random.nextDouble() * total;
+        for (Map.Entry<OperationType, Double> proportion : proportions.entrySet()) {
+            choice -= proportion.getValue();
+            if (choice < 0) {
+                return proportion.getKey();
+            }
+        }
+        throw new IllegalStateException("No operations configured for " + name);
+    }
+
+    private long nextKey(final Random random) {
+        return keyGenerator.nextKey(insertedKeys.get(), random);
+    }
+
+    private int scan(final long startKey) {
+        DBCursor cursor = collection.find(new BasicDBObject("_id", new BasicDBObject("$gte", startKey)))
+                                    .sort(new BasicDBObject("_id", 1))
+                                    .limit(scanLength);
+        try {
+            int count = 0;
+            while (cursor.hasNext()) {
+                cursor.next();
+                count++;
+            }
+            return count;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static String randomFieldValue(final Random random) {
+        char[] value = new char[FIELD_LENGTH];
+        for (int i = 0; i < FIELD_LENGTH; i++) {
+            value[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(value);
+    }
+
+    private DBObject newDocument(final long key) {
+        BasicDBObject document = new BasicDBObject("_id", key);
+        for (int i = 0; i < NUMBER_OF_FIELDS; i++) {
+            document.put("field" + i, fieldValue);
+        }
+        return document;
+    }
+
+    enum OperationType {
+        READ("read"), UPDATE("update"), INSERT("insert"), DELETE("delete"), SCAN("scan");
+
+        private final String name;
+
+        OperationType(final String name) {
+            this.name = name;
+        }
+
+        String getName() {
+            return name;
+        }
+    }
+}
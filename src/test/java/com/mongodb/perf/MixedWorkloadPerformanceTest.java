@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2008-2014 MongoDB, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mongodb.perf;
+
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.Fixture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs the core YCSB workloads, plus one with deletes, against an {@code _id} keyed collection, so the driver and server are
+ * measured on skewed, mixed traffic rather than a sequential sweep of every key.  Workload A is also run with uniformly chosen
+ * keys to show the effect of hot keys.  The number of threads can be set with {@code -Dorg.mongodb.test.mixed.threads}.
+ */
+public class MixedWorkloadPerformanceTest {
+    public static final String THREADS_SYSTEM_PROPERTY_NAME = "org.mongodb.test.mixed.threads";
+    private static final int NUMBER_OF_DOCUMENTS = 100_000;
+    private static final int OPERATIONS_PER_THREAD = 10_000;
+
+    private DB database;
+    private DBCollection collection;
+
+    @Before
+    public void setUp() {
+        database = Fixture.getDefaultDatabase();
+        collection = database.getCollection(this.getClass().getName());
+        collection.drop();
+    }
+
+    @After
+    public void tearDown() {
+        if (collection != null) {
+            collection.drop();
+        }
+        if (database != null) {
+            database.dropDatabase();
+        }
+    }
+
+    @Test
+    public void testWorkloadAUpdateHeavy() {
+        run(new MixedWorkload("Workload A update heavy", collection, KeyGenerator.zipfian(), NUMBER_OF_DOCUMENTS)
+            .read(0.5).update(0.5));
+    }
+
+    @Test
+    public void testWorkloadAUpdateHeavyWithUniformKeys() {
+        run(new MixedWorkload("Workload A update heavy", collection, KeyGenerator.uniform(), NUMBER_OF_DOCUMENTS)
+            .read(0.5).update(0.5));
+    }
+
+    @Test
+    public void testWorkloadBReadMostly() {
+        run(new MixedWorkload("Workload B read mostly", collection, KeyGenerator.zipfian(), NUMBER_OF_DOCUMENTS)
+            .read(0.95).update(0.05));
+    }
+
+    @Test
+    public void testWorkloadCReadOnly() {
+        run(new MixedWorkload("Workload C read only", collection, KeyGenerator.zipfian(), NUMBER_OF_DOCUMENTS)
+            .read(1));
+    }
+
+    @Test
+    public void testWorkloadDReadLatest() {
+        run(new MixedWorkload("Workload D read latest", collection, KeyGenerator.latest(), NUMBER_OF_DOCUMENTS)
+            .read(0.95).insert(0.05));
+    }
+
+    @Test
+    public void testWorkloadEShortRanges() {
+        run(new MixedWorkload("Workload E short ranges", collection, KeyGenerator.zipfian(), NUMBER_OF_DOCUMENTS)
+            .scan(0.95).insert(0.05));
+    }
+
+    @Test
+    public void testMixedWorkloadWithDeletes() {
+        run(new MixedWorkload("Mixed with deletes", collection, KeyGenerator.zipfian(), NUMBER_OF_DOCUMENTS)
+            .read(0.6).update(0.2).insert(0.1).delete(0.1));
+    }
+
+    private void run(final MixedWorkload workload) {
+        int threads = Integer.getInteger(THREADS_SYSTEM_PROPERTY_NAME, Runtime.getRuntime().availableProcessors());
+        workload.load();
+        SteadyStateWarmup warmup = SteadyStateWarmup.run(workload.getName(), workload);
+        workload.reset();
+        System.gc();
+        System.gc();
+
+        LoadResult result = new ConcurrentLoadRunner(workload.getName(), threads).run(workload, OPERATIONS_PER_THREAD);
+        System.out.printf("%s (%s, %s): %.0f ops per second on %d threads%n", workload.getName(), workload.getMix(),
+                          workload.getKeyGenerator(), result.getOperationsPerSecond(), threads);
+        workload.report(result, warmup);
+        result.getAllocations().report(workload.getName());
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2008-2014 MongoDB, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mongodb.perf;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.Fixture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Issues inserts and queries at a fixed rate, whatever the server's response time, and sweeps the rate to find the knee of the
+ * throughput/latency curve: the highest rate the server sustains before latency, measured from when each operation was due,
+ * takes off.  This is the figure to size capacity with; the closed loop tests slow down with the server and so never see the
+ * queueing.
+ *
+ * <p>The rates can be set with {@code -Dorg.mongodb.test.rates=2000,5000,...} and the number of threads issuing operations with
+ * {@code -Dorg.mongodb.test.openLoop.threads}.</p>
+ */
+public class OpenLoopPerformanceTest {
+    public static final String RATES_SYSTEM_PROPERTY_NAME = "org.mongodb.test.rates";
+    public static final String THREADS_SYSTEM_PROPERTY_NAME = "org.mongodb.test.openLoop.threads";
+    private static final String DEFAULT_RATES = "2000,5000,10000,20000,40000";
+    private static final int DEFAULT_THREADS = 64;
+    private static final int SECONDS_PER_RATE = 5;
+    private static final int NUMBER_OF_DOCUMENTS = 10_000;
+    // a rate is past the knee once it falls this far short of its target, or its p99 grows this many times over the lowest rate's
+    private static final double SUSTAINED_FRACTION_OF_TARGET = 0.95;
+    private static final double KNEE_LATENCY_FACTOR = 4;
+
+    private DB database;
+    private DBCollection collection;
+
+    @Before
+    public void setUp() {
+        database = Fixture.getDefaultDatabase();
+        collection = database.getCollection(this.getClass().getName());
+        collection.drop();
+    }
+
+    @After
+    public void tearDown() {
+        if (collection != null) {
+            collection.drop();
+        }
+        if (database != null) {
+            database.dropDatabase();
+        }
+    }
+
+    @Test
+    public void testOpenLoopInsert() {
+        final DBObject[] documents = new DBObject[getNumberOfThreads()];
+        for (int i = 0; i < documents.length; i++) {
+            documents[i] = new BasicDBObject("name", "String value");
+        }
+        Workload insert = new Workload() {
+            @Override
+            public void execute(final int threadIndex, final int operation) {
+                DBObject document = documents[threadIndex];
+                document.removeField("_id");
+                collection.insert(document);
+            }
+        };
+        sweep("Open Loop Insert", insert);
+    }
+
+    @Test
+    public void testOpenLoopQuery() {
+        populateCollection();
+        Workload query = new Workload() {
+            @Override
+            public void execute(final int threadIndex, final int operation) {
+                int id = ThreadLocalRandom.current().nextInt(NUMBER_OF_DOCUMENTS);
+                if (collection.findOne(new BasicDBObject("_id", id)) == null) {
+                    throw new IllegalStateException("Expected to find document " + id);
+                }
+            }
+        };
+        sweep("Open Loop Query", query);
+    }
+
+    private void sweep(final String name, final Workload workload) {
+        List<Integer> rates = getRates();
+        OpenLoopRunner runner = new OpenLoopRunner(name, getNumberOfThreads());
+
+        SteadyStateWarmup warmup = SteadyStateWarmup.run(name, workload);
+        System.gc();
+        System.gc();
+
+        List<OpenLoopResult> results = new ArrayList<OpenLoopResult>();
+        for (int rate : rates) {
+            OpenLoopResult result = runner.run(workload, rate, (long) rate * SECONDS_PER_RATE);
+            result.getResponseTimes().report();
+            result.getServiceTimes().printPercentiles();
+            new BenchmarkRecord(name, "1 string field").openLoopResult(result).warmup(warmup).write();
+            results.add(result);
+        }
+
+        OpenLoopResult knee = null;
+        boolean pastKnee = false;
+        double baselineP99 = results.get(0).getResponseTimes().getPercentileMicros(99);
+        System.out.printf("Test,Target Ops per Second,Achieved Ops per Second,Threads,p50 Micros,p99 Micros,p999 Micros,Max Micros,"
+                          + "Service p99 Micros, %n");
+        for (OpenLoopResult result : results) {
+            LatencyHistogram responseTimes = result.getResponseTimes();
+            System.out.printf("%s,%d,%.0f,%d,%.1f,%.1f,%.1f,%.1f,%.1f, %n", name, result.getTargetOperationsPerSecond(),
+                              result.getAchievedOperationsPerSecond(), result.getNumberOfThreads(),
+                              responseTimes.getPercentileMicros(50), responseTimes.getPercentileMicros(99),
+                              responseTimes.getPercentileMicros(99.9), responseTimes.getMaxMicros(),
+                              result.getServiceTimes().getPercentileMicros(99));
+            boolean sustained = result.getAchievedOperationsPerSecond()
+                                >= SUSTAINED_FRACTION_OF_TARGET * result.getTargetOperationsPerSecond()
+                                && responseTimes.getPercentileMicros(99) <= KNEE_LATENCY_FACTOR * baselineP99;
+            if (sustained && !pastKnee) {
+                knee = result;
+            } else {
+                pastKnee = true;
+            }
+        }
+        if (knee == null) {
+            System.out.printf("%s was not sustained even at %d ops per second%n", name, rates.get(0));
+        } else {
+            System.out.printf("%s knee: %d ops per second sustained with p99 of %.1f micros%n", name,
+                              knee.getTargetOperationsPerSecond(), knee.getResponseTimes().getPercentileMicros(99));
+        }
+    }
+
+    private void populateCollection() {
+        new BulkLoader(collection).load(NUMBER_OF_DOCUMENTS, BulkLoader.copiesOf(new BasicDBObject("name", "String value")));
+    }
+
+    private static List<Integer> getRates() {
+        String ratesProperty = System.getProperty(RATES_SYSTEM_PROPERTY_NAME);
+        String rates = ratesProperty == null || ratesProperty.length() == 0 ? DEFAULT_RATES : ratesProperty;
+        List<Integer> rateList = new ArrayList<Integer>();
+        for (String rate : rates.split(",")) {
+            rateList.add(Integer.parseInt(rate.trim()));
+        }
+        Collections.sort(rateList);
+        return rateList;
+    }
+
+    private static int getNumberOfThreads() {
+        return Integer.getInteger(THREADS_SYSTEM_PROPERTY_NAME, DEFAULT_THREADS);
+    }
+}
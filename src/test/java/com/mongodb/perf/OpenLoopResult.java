@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2008-2014 MongoDB, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mongodb.perf;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The outcome of an {@link OpenLoopRunner} run at one target rate.
+ */
+public final class OpenLoopResult {
+    private static final double NANOS_IN_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final String name;
+    private final int numberOfThreads;
+    private final int targetOperationsPerSecond;
+    private final long numberOfOperations;
+    private final long elapsedNanos;
+    private final LatencyHistogram responseTimes;
+    private final LatencyHistogram serviceTimes;
+
+    OpenLoopResult(final String name, final int numberOfThreads, final int targetOperationsPerSecond, final long numberOfOperations,
+                   final long elapsedNanos, final LatencyHistogram responseTimes, final LatencyHistogram serviceTimes) {
+        this.name = name;
+        this.numberOfThreads = numberOfThreads;
+        this.targetOperationsPerSecond = targetOperationsPerSecond;
+        this.numberOfOperations = numberOfOperations;
+        this.elapsedNanos = elapsedNanos;
+        this.responseTimes = responseTimes;
+        this.serviceTimes = serviceTimes;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getNumberOfThreads() {
+        return numberOfThreads;
+    }
+
+    public int getTargetOperationsPerSecond() {
+        return targetOperationsPerSecond;
+    }
+
+    public long getNumberOfOperations() {
+        return numberOfOperations;
+    }
+
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+    }
+
+    /**
+     * @return the rate actually achieved, which falls short of the target once the server can't keep up
+     */
+    public double getAchievedOperationsPerSecond() {
+        return numberOfOperations * NANOS_IN_SECOND / elapsedNanos;
+    }
+
+    /**
+     * @return the latencies measured from when each operation was due, corrected for coordinated omission
+     */
+    public LatencyHistogram getResponseTimes() {
+        return responseTimes;
+    }
+
+    /**
+     * @return the latencies measured from when each operation was actually sent, as a closed loop would measure them
+     */
+    public LatencyHistogram getServiceTimes() {
+        return serviceTimes;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2008-2014 MongoDB, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mongodb.perf;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs a {@link Workload} open loop: operation {@code n} is due at {@code start + n / rate}, whether or not the earlier
+ * operations have finished, the way independent clients would issue them.  A pool of threads takes the operations in order,
+ * waits until each is due and runs it.
+ *
+ * <p>Latency is measured from when each operation was due rather than from when it was sent, so time spent queued behind a slow
+ * operation is counted instead of silently dropped (coordinated omission).  The latency from when the operation was actually
+ * sent is kept as well, as the service time, and the difference between the two shows how far the run fell behind.  There
+ * must be enough threads to cover the rate times the service time, otherwise the runner itself becomes the bottleneck.</p>
+ */
+public final class OpenLoopRunner {
+    private final String name;
+    private final int numberOfThreads;
+
+    public OpenLoopRunner(final String name, final int numberOfThreads) {
+        this.name = name;
+        this.numberOfThreads = numberOfThreads;
+    }
+
+    /**
+     * Issues {@code numberOfOperations} operations at {@code operationsPerSecond} and waits for them all to finish.
+     *
+     * @param workload            the operation to run; the operation number passed to it is the position in the schedule
+     * @param operationsPerSecond the target rate
+     * @param numberOfOperations  the number of operations to issue
+     * @return the result of the run
+     * @throws IllegalStateException if any operation failed
+     */
+    public OpenLoopResult run(final Workload workload, final int operationsPerSecond, final long numberOfOperations) {
+        final long intervalNanos = TimeUnit.SECONDS.toNanos(1) / operationsPerSecond;
+        final AtomicLong nextOperation = new AtomicLong();
+        final CountDownLatch ready = new CountDownLatch(numberOfThreads);
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch finished = new CountDownLatch(numberOfThreads);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final long[] scheduleStartNanos = new long[1];
+        final LatencyHistogram responseTimes = LatencyHistogram.concurrent(name + " " + operationsPerSecond + " ops per second");
+        final LatencyHistogram serviceTimes = LatencyHistogram.concurrent(name + " " + operationsPerSecond
+                                                                          + " ops per second service time");
+
+        List<Thread> threads = new ArrayList<Thread>(numberOfThreads);
+        ConcurrentLoadRunner.NamedThreadFactory threadFactory = new ConcurrentLoadRunner.NamedThreadFactory(name);
+        for (int i = 0; i < numberOfThreads; i++) {
+            final int threadIndex = i;
+            threads.add(threadFactory.newThread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        ready.countDown();
+                        start.await();
+                        long operation;
+                        while ((operation = nextOperation.getAndIncrement()) < numberOfOperations && failure.get() == null) {
+                            long intendedStart = scheduleStartNanos[0] + operation * intervalNanos;
+                            long wait;
+                            while ((wait = intendedStart - System.nanoTime()) > 0) {
+                                LockSupport.parkNanos(wait);
+                            }
+                            long actualStart = System.nanoTime();
+                            workload.execute(threadIndex, (int) operation);
+                            serviceTimes.recordSince(actualStart);
+                            responseTimes.recordSince(intendedStart);
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    } finally {
+                        finished.countDown();
+                    }
+                }
+            }));
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        long elapsedNanos;
+        try {
+            ready.await();
+            scheduleStartNanos[0] = System.nanoTime();
+            start.countDown();
+            finished.await();
+            elapsedNanos = System.nanoTime() - scheduleStartNanos[0];
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while running " + name, e);
+        }
+        if (failure.get() != null) {
+            throw new IllegalStateException("Workload " + name + " failed", failure.get());
+        }
+
+        return new OpenLoopResult(name, numberOfThreads, operationsPerSecond, numberOfOperations, elapsedNanos, responseTimes,
+                                  serviceTimes);
+    }
+}
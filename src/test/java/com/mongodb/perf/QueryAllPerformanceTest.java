@@ -37,44 +37,45 @@ public class QueryAllPerformanceTest {
         }
     }
 
-    private void warmup(final int numberOfRuns, final DBObject document) {
-        DBCursor found = null;
-        for (int i = 0; i < numberOfRuns; i++) {
-            document.removeField("_id");
-            collection.insert(document);
-            found = collection.find();
-        }
-        System.out.println(found);
-        System.gc();
-        System.gc();
+    private SteadyStateWarmup warmup(final DBObject document) {
+        return SteadyStateWarmup.onScratchCollection("Query All", collection, new SteadyStateWarmup.ScratchCollectionWorkload() {
+            @Override
+            public void execute(final DBCollection scratchCollection, final int operation) {
+                document.removeField("_id");
+                scratchCollection.insert(document);
+                scratchCollection.find().limit(100).toArray();
+            }
+        });
     }
 
     private void populateCollection(final int numberOfDocuments, final DBObject document) {
-        for (int i = 0; i < numberOfDocuments; i++) {
-            document.removeField("_id");
-            collection.insert(document);
-        }
+        new BulkLoader(collection).load(numberOfDocuments, BulkLoader.copiesOf(document));
     }
 
     @Test
     public void testPerformanceOfQueryForAllDocumentsWithSingleStringField() {
         // Given
-        warmup(10_000, new BasicDBObject("test", "Document"));
-        collection.remove(new BasicDBObject());
+        SteadyStateWarmup warmup = warmup(new BasicDBObject("test", "Document"));
         populateCollection(NUMBER_OF_DOCUMENTS, new BasicDBObject("name", "String value"));
 
         //this array stops the loop from being optimized away by hotspot
         resultArrayToAvoidOptimization = new BasicDBObject[NUMBER_OF_DOCUMENTS];
 
+        LatencyHistogram latencies = new LatencyHistogram("Query " + NUMBER_OF_DOCUMENTS + " Documents");
+
         // When
+        AllocationMonitor allocations = AllocationMonitor.start();
         long startTime = System.currentTimeMillis();
         for (int i = 0; i < NUMBER_OF_OPERATIONS; i++) {
+            long operationStart = System.nanoTime();
             DBCursor cursor = collection.find();
             for (int j = 0; j < NUMBER_OF_DOCUMENTS; j++) {
                 resultArrayToAvoidOptimization[j] = cursor.next();
             }
+            latencies.recordSince(operationStart);
         }
         long endTime = System.currentTimeMillis();
+        allocations.stop(NUMBER_OF_OPERATIONS);
 
         // Then
         long timeTaken = endTime - startTime;
@@ -84,25 +85,35 @@ public class QueryAllPerformanceTest {
         System.out.printf("%.0f ops per second%n", operationsPerSecond);
         System.out.printf("Test,Ops per Second,Time Taken Millis, %n");
         System.out.printf("Query %d Documents,%.0f,%d, %n", NUMBER_OF_DOCUMENTS, operationsPerSecond, timeTaken);
+        latencies.report();
+        allocations.report(latencies.getName());
+        new BenchmarkRecord(latencies.getName(), "1 string field")
+                .operations(NUMBER_OF_OPERATIONS, timeTaken).latencies(latencies).allocations(allocations).warmup(warmup).write();
     }
 
     @Test
     public void testPerformanceOfQueryForAllDocumentsWith100Fields() {
-        warmupAndInit();
+        SteadyStateWarmup warmup = warmupAndInit();
 
         //this array stops the loop from being optimized away by hotspot
         resultArrayToAvoidOptimization = new BasicDBObject[NUMBER_OF_DOCUMENTS];
 
+        LatencyHistogram latencies = new LatencyHistogram("Query " + NUMBER_OF_DOCUMENTS + " Documents 100 fields");
+
         // When
+        AllocationMonitor allocations = AllocationMonitor.start();
         long startTime = System.currentTimeMillis();
         for (int i = 0; i < 2_000; i++) {
+            long operationStart = System.nanoTime();
             DBCursor cursor = collection.find();
             for (int j = 0; j < NUMBER_OF_DOCUMENTS; j++) {
                 DBObject dbObject = cursor.next();
                 resultArrayToAvoidOptimization[j] = dbObject;
             }
+            latencies.recordSince(operationStart);
         }
         long endTime = System.currentTimeMillis();
+        allocations.stop(2_000);
 
         // Then
         long timeTaken = endTime - startTime;
@@ -112,16 +123,20 @@ public class QueryAllPerformanceTest {
         System.out.printf("%.0f ops per second%n", operationsPerSecond);
         System.out.printf("Test,Ops per Second,Time Taken Millis, %n");
         System.out.printf("Query %d Documents 100 fields,%.0f,%d, %n", NUMBER_OF_DOCUMENTS, operationsPerSecond, timeTaken);
+        latencies.report();
+        allocations.report(latencies.getName());
+        new BenchmarkRecord(latencies.getName(), "100 string fields")
+                .operations(2_000, timeTaken).latencies(latencies).allocations(allocations).warmup(warmup).write();
     }
 
-    private void warmupAndInit() {
-        warmup(10_000, new BasicDBObject("test", "Document"));
-        collection.remove(new BasicDBObject());
+    private SteadyStateWarmup warmupAndInit() {
+        SteadyStateWarmup warmup = warmup(new BasicDBObject("test", "Document"));
         BasicDBObject document = new BasicDBObject();
         for (int i = 0; i < 100; i++) {
             document.put("field"+i, "value "+i);
         }
         populateCollection(NUMBER_OF_DOCUMENTS, document);
+        return warmup;
     }
 
 }
@@ -12,6 +12,7 @@ import org.junit.Test;
 public class QueryPerformanceTest {
     private static final int NUMBER_OF_OPERATIONS = 20_000;
     private static final double NUM_MILLIS_IN_SECOND = 1000;
+    private static final int NESTED_RESULTS_TO_KEEP = 1000;
 
     private DB database;
     private DBCollection collection;
@@ -33,41 +34,42 @@ public class QueryPerformanceTest {
         }
     }
 
-    private void warmup(final int numberOfRuns, final DBObject document) {
-        DBObject found = null;
-        for (int i = 0; i < numberOfRuns; i++) {
-            document.removeField("_id");
-            collection.insert(document);
-            found = collection.find().one();
-        }
-        System.out.println(found);
-        System.gc();
-        System.gc();
+    private SteadyStateWarmup warmup(final DBObject document) {
+        return SteadyStateWarmup.onScratchCollection("Query", collection, new SteadyStateWarmup.ScratchCollectionWorkload() {
+            @Override
+            public void execute(final DBCollection scratchCollection, final int operation) {
+                document.removeField("_id");
+                scratchCollection.insert(document);
+                scratchCollection.find().one();
+            }
+        });
     }
 
     private void populateCollection(final int numberOfDocuments, final DBObject document) {
-        for (int i = 0; i < numberOfDocuments; i++) {
-            document.removeField("_id");
-            collection.insert(document);
-        }
+        new BulkLoader(collection).load(numberOfDocuments, BulkLoader.copiesOf(document));
     }
 
     @Test
     public void testPerformanceOfQueryForSingleDocumentWithSingleStringField() {
         // Given
-        warmup(10_000, new BasicDBObject("test", "Document"));
-        collection.remove(new BasicDBObject());
+        SteadyStateWarmup warmup = warmup(new BasicDBObject("test", "Document"));
         populateCollection(100, new BasicDBObject("name", "String value"));
 
         //this array stops the loop from being optimized away by hotspot
         DBObject[] resultArrayToAvoidOptimization = new BasicDBObject[NUMBER_OF_OPERATIONS];
 
+        LatencyHistogram latencies = new LatencyHistogram("Query Single Document");
+
         // When
+        AllocationMonitor allocations = AllocationMonitor.start();
         long startTime = System.currentTimeMillis();
         for (int i = 0; i < NUMBER_OF_OPERATIONS; i++) {
+            long operationStart = System.nanoTime();
             resultArrayToAvoidOptimization[i] = collection.find().one();
+            latencies.recordSince(operationStart);
         }
         long endTime = System.currentTimeMillis();
+        allocations.stop(NUMBER_OF_OPERATIONS);
 
         // Then
         long timeTaken = endTime - startTime;
@@ -77,12 +79,15 @@ public class QueryPerformanceTest {
         System.out.printf("%.0f ops per second%n", operationsPerSecond);
         System.out.printf("Test,Ops per Second,Time Taken Millis, %n");
         System.out.printf("Query Single Document,%.0f,%d, %n", operationsPerSecond, timeTaken);
+        latencies.report();
+        allocations.report(latencies.getName());
+        new BenchmarkRecord(latencies.getName(), "1 string field")
+                .operations(NUMBER_OF_OPERATIONS, timeTaken).latencies(latencies).allocations(allocations).warmup(warmup).write();
     }
 
     @Test
     public void testPerformanceOfQueryForSingleDocumentWith100Fields() {
-        warmup(10_000, new BasicDBObject("test", "Document"));
-        collection.remove(new BasicDBObject());
+        SteadyStateWarmup warmup = warmup(new BasicDBObject("test", "Document"));
         BasicDBObject document = new BasicDBObject();
         for (int i = 0; i < 100; i++) {
             document.put("field"+i, "value "+i);
@@ -92,12 +97,18 @@ public class QueryPerformanceTest {
         //this array stops the loop from being optimized away by hotspot
         DBObject[] resultArrayToAvoidOptimization = new BasicDBObject[NUMBER_OF_OPERATIONS];
 
+        LatencyHistogram latencies = new LatencyHistogram("Query Single Document 100 fields");
+
         // When
+        AllocationMonitor allocations = AllocationMonitor.start();
         long startTime = System.currentTimeMillis();
         for (int i = 0; i < NUMBER_OF_OPERATIONS; i++) {
+            long operationStart = System.nanoTime();
             resultArrayToAvoidOptimization[i] = collection.find().one();
+            latencies.recordSince(operationStart);
         }
         long endTime = System.currentTimeMillis();
+        allocations.stop(NUMBER_OF_OPERATIONS);
 
         // Then
         long timeTaken = endTime - startTime;
@@ -107,6 +118,57 @@ public class QueryPerformanceTest {
         System.out.printf("%.0f ops per second%n", operationsPerSecond);
         System.out.printf("Test,Ops per Second,Time Taken Millis, %n");
         System.out.printf("Query Single Document 100 fields,%.0f,%d, %n", operationsPerSecond, timeTaken);
+        latencies.report();
+        allocations.report(latencies.getName());
+        new BenchmarkRecord(latencies.getName(), "100 string fields")
+                .operations(NUMBER_OF_OPERATIONS, timeTaken).latencies(latencies).allocations(allocations).warmup(warmup).write();
+    }
+
+    @Test
+    public void testPerformanceOfQueryForSingleNestedDocumentOf4KB() {
+        queryForSingleNestedDocument(4 * 1024);
     }
 
+    @Test
+    public void testPerformanceOfQueryForSingleNestedDocumentOf16KB() {
+        queryForSingleNestedDocument(16 * 1024);
+    }
+
+    private void queryForSingleNestedDocument(final int sizeInBytes) {
+        SteadyStateWarmup warmup = warmup(new BasicDBObject("test", "Document"));
+        DocumentGenerator generator = DocumentGenerator.nested(sizeInBytes);
+        DBObject document = generator.generate();
+        populateCollection(100, document);
+
+        //this array stops the loop from being optimized away by hotspot; it is reused, as every result held on to would take
+        //several times the document size in heap
+        DBObject[] resultArrayToAvoidOptimization = new BasicDBObject[NESTED_RESULTS_TO_KEEP];
+
+        LatencyHistogram latencies = new LatencyHistogram("Query Single Nested Document " + sizeInBytes + " bytes");
+
+        // When
+        AllocationMonitor allocations = AllocationMonitor.start();
+        long startTime = System.currentTimeMillis();
+        for (int i = 0; i < NUMBER_OF_OPERATIONS; i++) {
+            long operationStart = System.nanoTime();
+            resultArrayToAvoidOptimization[i % NESTED_RESULTS_TO_KEEP] = collection.find().one();
+            latencies.recordSince(operationStart);
+        }
+        long endTime = System.currentTimeMillis();
+        allocations.stop(NUMBER_OF_OPERATIONS);
+
+        // Then
+        long timeTaken = endTime - startTime;
+        System.out.printf("Time taken: %d millis\n", timeTaken);
+        System.out.printf("Test took: %,.3f seconds\n", timeTaken / NUM_MILLIS_IN_SECOND);
+        double operationsPerSecond = (NUM_MILLIS_IN_SECOND / timeTaken) * NUMBER_OF_OPERATIONS;
+        System.out.printf("%.0f ops per second%n", operationsPerSecond);
+        System.out.printf("Test,Ops per Second,Time Taken Millis, %n");
+        System.out.printf("%s,%.0f,%d, %n", latencies.getName(), operationsPerSecond, timeTaken);
+        latencies.report();
+        allocations.report(latencies.getName());
+        new BenchmarkRecord(latencies.getName(), generator.getShape())
+                .operations(NUMBER_OF_OPERATIONS, timeTaken).latencies(latencies).allocations(allocations).warmup(warmup)
+                .metric("documentSizeBytes", DocumentGenerator.getEncodedSize(document)).write();
+    }
 }
@@ -0,0 +1,322 @@
+/*
+ * Copyright (c) 2008-2014 MongoDB, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mongodb.perf;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.Fixture;
+import com.mongodb.MongoClient;
+import com.mongodb.MongoClientOptions;
+import com.mongodb.MongoException;
+import com.mongodb.ReadPreference;
+import com.mongodb.ReplicaSetFixture;
+import com.mongodb.WriteConcern;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs queries by {@code _id} with {@code ReadPreference.primary()}, {@code secondaryPreferred()} and {@code nearest()} on an
+ * increasing number of threads against a three member replica set started by {@link ReplicaSetFixture}, to show how much read
+ * throughput the secondaries add over the primary alone.  A second test kills the primary, and then a secondary, part way
+ * through a run with each read preference, and restarts it after; the maximum and tail latencies, the failed attempts and the
+ * length of the outage are what the failover cost the readers.
+ *
+ * <p>The members are local, so they share the client's CPUs, and the figures are for how the driver spreads and recovers load
+ * rather than what separate machines would give.  The tests are skipped if {@code mongod} can't be run; see
+ * {@link ReplicaSetFixture} for how to point them at one.  The thread counts can be set with
+ * {@code -Dorg.mongodb.test.threads=1,2,4,...}.</p>
+ */
+public class ReadPreferencePerformanceTest {
+    private static final int NUMBER_OF_DOCUMENTS = 10_000;
+    private static final int OPERATIONS_PER_THREAD = 5_000;
+    private static final int FAILOVER_THREADS = 8;
+    private static final int FAILOVER_OPERATIONS_PER_THREAD = 20_000;
+    // the member is killed once the first thread is this far through its operations
+    private static final int KILL_AFTER_OPERATIONS = FAILOVER_OPERATIONS_PER_THREAD / 4;
+    private static final long RETRY_INTERVAL_MILLIS = 10;
+    private static final int REPLICATION_TIMEOUT_MILLIS = 60_000;
+    private static final double NANOS_IN_MILLI = 1000000;
+
+    private static ReplicaSetFixture replicaSet;
+    private static MongoClient mongoClient;
+    private static DB database;
+    private static DBCollection collection;
+    // read while every member is up, as a failover test's client may still be reconnecting to a restarted member afterwards
+    private static String serverVersion;
+
+    private final Map<String, ReadPreference> readPreferences = new LinkedHashMap<String, ReadPreference>();
+
+    public ReadPreferencePerformanceTest() {
+        readPreferences.put("primary", ReadPreference.primary());
+        readPreferences.put("secondaryPreferred", ReadPreference.secondaryPreferred());
+        readPreferences.put("nearest", ReadPreference.nearest());
+    }
+
+    @BeforeClass
+    public static void setUpReplicaSet() throws IOException {
+        Assume.assumeTrue("Needs mongod to start a replica set", ReplicaSetFixture.isMongodAvailable());
+        replicaSet = ReplicaSetFixture.start();
+        mongoClient = replicaSet.createMongoClient(MongoClientOptions.builder());
+        database = mongoClient.getDB("DriverTest-" + System.nanoTime());
+        collection = database.getCollection(ReadPreferencePerformanceTest.class.getName());
+        new BulkLoader(collection).load(NUMBER_OF_DOCUMENTS, BulkLoader.copiesOf(new BasicDBObject("name", "String value")));
+        // replication is in order, so once this is on every member so is everything loaded before it
+        collection.insert(new BasicDBObject("name", "Replicated"),
+                          new WriteConcern(ReplicaSetFixture.NUMBER_OF_MEMBERS, REPLICATION_TIMEOUT_MILLIS));
+        serverVersion = Fixture.getServerVersion(database);
+    }
+
+    @AfterClass
+    public static void tearDownReplicaSet() {
+        if (mongoClient != null) {
+            mongoClient.close();
+            mongoClient = null;
+        }
+        if (replicaSet != null) {
+            replicaSet.close();
+            replicaSet = null;
+        }
+    }
+
+    @Test
+    public void testScalingOfReadPreferences() {
+        List<ReadPreferenceResult> results = new ArrayList<ReadPreferenceResult>();
+        for (Map.Entry<String, ReadPreference> readPreference : readPreferences.entrySet()) {
+            String name = "Read " + readPreference.getKey();
+            Workload query = queryWorkload(readPreference.getValue(), null);
+            SteadyStateWarmup warmup = SteadyStateWarmup.run(name, query);
+            System.gc();
+            System.gc();
+
+            LoadResult baseline = null;
+            for (int threads : ConcurrentLoadRunner.getThreadCounts()) {
+                LoadResult result = new ConcurrentLoadRunner(name, threads).run(query, OPERATIONS_PER_THREAD);
+                if (baseline == null) {
+                    baseline = result;
+                }
+                results.add(new ReadPreferenceResult(readPreference.getKey(), result, result.getScalingEfficiency(baseline)));
+                result.getLatencies().report();
+                result.getAllocations().report(result.getLatencies().getName());
+                new BenchmarkRecord(name, "1 string field")
+                        .serverVersion(serverVersion)
+                        .parameter("readPreference", readPreference.getKey())
+                        .parameter("members", ReplicaSetFixture.NUMBER_OF_MEMBERS)
+                        .loadResult(result)
+                        .warmup(warmup)
+                        .metric("scalingEfficiency", result.getScalingEfficiency(baseline))
+                        .write();
+            }
+        }
+        printScalingResults(results);
+    }
+
+    @Test
+    public void testFailover() throws IOException {
+        List<FailoverResult> results = new ArrayList<FailoverResult>();
+        for (Map.Entry<String, ReadPreference> readPreference : readPreferences.entrySet()) {
+            SteadyStateWarmup.run("Read " + readPreference.getKey(), queryWorkload(readPreference.getValue(), null));
+            for (boolean killPrimary : new boolean[]{true, false}) {
+                results.add(failover(readPreference.getKey(), readPreference.getValue(), killPrimary));
+            }
+        }
+        printFailoverResults(results);
+    }
+
+    private FailoverResult failover(final String readPreferenceName, final ReadPreference readPreference,
+                                    final boolean killPrimary) throws IOException {
+        String killed = killPrimary ? "primary" : "secondary";
+        String name = "Failover " + readPreferenceName + " killing " + killed;
+        int primary = replicaSet.getPrimaryIndex();
+        if (primary < 0) {
+            throw new IllegalStateException("No primary in " + replicaSet);
+        }
+        final int member = killPrimary ? primary : (primary + 1) % ReplicaSetFixture.NUMBER_OF_MEMBERS;
+        final Failures failures = new Failures();
+        final AtomicBoolean memberKilled = new AtomicBoolean();
+        final Workload query = queryWorkload(readPreference, failures);
+        Workload queryThenKill = new Workload() {
+            @Override
+            public void execute(final int threadIndex, final int operation) {
+                // killed from its own thread, so that this one carries on issuing queries meanwhile
+                if (operation == KILL_AFTER_OPERATIONS && memberKilled.compareAndSet(false, true)) {
+                    new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            replicaSet.killMember(member);
+                        }
+                    }, "Kill " + replicaSet.getMembers().get(member)).start();
+                }
+                query.execute(threadIndex, operation);
+            }
+        };
+        System.gc();
+        System.gc();
+
+        LoadResult result;
+        try {
+            result = new ConcurrentLoadRunner(name, FAILOVER_THREADS).run(queryThenKill, FAILOVER_OPERATIONS_PER_THREAD);
+        } finally {
+            replicaSet.restartMember(member);
+        }
+        FailoverResult failoverResult = new FailoverResult(readPreferenceName, killed, result, failures.attempts.get(),
+                                                           failures.getOutageMillis());
+        result.getLatencies().report();
+        new BenchmarkRecord(name, "1 string field")
+                .serverVersion(serverVersion)
+                .parameter("readPreference", readPreferenceName)
+                .parameter("killedMember", killed)
+                .parameter("members", ReplicaSetFixture.NUMBER_OF_MEMBERS)
+                .loadResult(result)
+                .metric("failedAttempts", failoverResult.failedAttempts)
+                .metric("outageMillis", failoverResult.outageMillis)
+                .write();
+        return failoverResult;
+    }
+
+    /**
+     * @param failures where to count failed attempts, which are then retried, or null to fail the run on the first error
+     */
+    private static Workload queryWorkload(final ReadPreference readPreference, final Failures failures) {
+        return new Workload() {
+            @Override
+            public void execute(final int threadIndex, final int operation) {
+                int id = ThreadLocalRandom.current().nextInt(NUMBER_OF_DOCUMENTS);
+                while (true) {
+                    try {
+                        if (collection.findOne(new BasicDBObject("_id", id), null, readPreference) == null) {
+                            throw new IllegalStateException("Expected to find document " + id);
+                        }
+                        return;
+                    } catch (MongoException e) {
+                        if (failures == null) {
+                            throw e;
+                        }
+                        // retried until the driver finds a member to read from again, as an application would
+                        failures.record();
+                        sleep(RETRY_INTERVAL_MILLIS);
+                    }
+                }
+            }
+        };
+    }
+
+    private static void sleep(final long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting to retry", e);
+        }
+    }
+
+    private static void printScalingResults(final List<ReadPreferenceResult> results) {
+        System.out.printf("Test,Read Preference,Threads,Ops per Second,Time Taken Millis,Scaling Efficiency,Speedup over Primary,"
+                          + "50th Percentile Micros,99th Percentile Micros, %n");
+        for (ReadPreferenceResult result : results) {
+            LoadResult loadResult = result.loadResult;
+            System.out.printf("Read Preference,%s,%d,%.0f,%d,%.2f,%.2f,%.0f,%.0f, %n", result.readPreference,
+                              loadResult.getNumberOfThreads(), loadResult.getOperationsPerSecond(), loadResult.getElapsedMillis(),
+                              result.scalingEfficiency, getSpeedupOverPrimary(result, results),
+                              loadResult.getLatencies().getPercentileMicros(50),
+                              loadResult.getLatencies().getPercentileMicros(99));
+        }
+    }
+
+    private static double getSpeedupOverPrimary(final ReadPreferenceResult result, final List<ReadPreferenceResult> results) {
+        for (ReadPreferenceResult primary : results) {
+            if (primary.readPreference.equals("primary")
+                && primary.loadResult.getNumberOfThreads() == result.loadResult.getNumberOfThreads()) {
+                return result.loadResult.getOperationsPerSecond() / primary.loadResult.getOperationsPerSecond();
+            }
+        }
+        return Double.NaN;
+    }
+
+    private static void printFailoverResults(final List<FailoverResult> results) {
+        System.out.printf("Test,Read Preference,Killed Member,Threads,Ops per Second,Time Taken Millis,99th Percentile Micros,"
+                          + "99.9th Percentile Micros,Max Micros,Failed Attempts,Outage Millis, %n");
+        for (FailoverResult result : results) {
+            LoadResult loadResult = result.loadResult;
+            System.out.printf("Failover,%s,%s,%d,%.0f,%d,%.0f,%.0f,%.0f,%d,%d, %n", result.readPreference, result.killedMember,
+                              loadResult.getNumberOfThreads(), loadResult.getOperationsPerSecond(), loadResult.getElapsedMillis(),
+                              loadResult.getLatencies().getPercentileMicros(99),
+                              loadResult.getLatencies().getPercentileMicros(99.9), loadResult.getLatencies().getMaxMicros(),
+                              result.failedAttempts, result.outageMillis);
+        }
+    }
+
+    private static final class Failures {
+        private final AtomicLong attempts = new AtomicLong();
+        private final AtomicLong firstFailureNanos = new AtomicLong();
+        private final AtomicLong lastFailureNanos = new AtomicLong();
+
+        void record() {
+            long now = System.nanoTime();
+            attempts.incrementAndGet();
+            firstFailureNanos.compareAndSet(0, now);
+            lastFailureNanos.set(now);
+        }
+
+        /**
+         * @return the time from the first failed attempt to the last
+         */
+        long getOutageMillis() {
+            return attempts.get() == 0 ? 0 : (long) ((lastFailureNanos.get() - firstFailureNanos.get()) / NANOS_IN_MILLI);
+        }
+    }
+
+    private static final class ReadPreferenceResult {
+        private final String readPreference;
+        private final LoadResult loadResult;
+        private final double scalingEfficiency;
+
+        private ReadPreferenceResult(final String readPreference, final LoadResult loadResult, final double scalingEfficiency) {
+            this.readPreference = readPreference;
+            this.loadResult = loadResult;
+            this.scalingEfficiency = scalingEfficiency;
+        }
+    }
+
+    private static final class FailoverResult {
+        private final String readPreference;
+        private final String killedMember;
+        private final LoadResult loadResult;
+        private final long failedAttempts;
+        private final long outageMillis;
+
+        private FailoverResult(final String readPreference, final String killedMember, final LoadResult loadResult,
+                               final long failedAttempts, final long outageMillis) {
+            this.readPreference = readPreference;
+            this.killedMember = killedMember;
+            this.loadResult = loadResult;
+            this.failedAttempts = failedAttempts;
+            this.outageMillis = outageMillis;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2008-2014 MongoDB, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mongodb.perf;
+
+import com.mongodb.DBObject;
+import com.mongodb.util.JSON;
+import org.apache.commons.math3.stat.inference.TestUtils;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares the records of a candidate run against a baseline and flags statistically significant changes in throughput and
+ * latency.  Records with the same test, document shape, thread count and parameters are pooled, and their windowed throughput
+ * and mean latency samples are compared with Welch's t-test.  A change is flagged when it is both significant at the chosen
+ * level and larger than the threshold.
+ *
+ * <p>Usage: {@code ResultsComparison <baseline file or directory> <candidate file or directory> [significance] [threshold %]},
+ * or {@code gradle compareResults -Pbaseline=results/201410 -Pcandidate=results/201411}.  Exits with status 1 if anything
+ * regressed.</p>
+ */
+public final class ResultsComparison {
+    private static final double DEFAULT_SIGNIFICANCE = 0.05;
+    private static final double DEFAULT_THRESHOLD_PERCENT = 5;
+    static final String REGRESSION = "REGRESSION";
+    static final String IMPROVEMENT = "improvement";
+    static final String NO_CHANGE = "no significant change";
+    static final String INSUFFICIENT_SAMPLES = "insufficient samples";
+
+    private final double significance;
+    private final double thresholdPercent;
+
+    public ResultsComparison(final double significance, final double thresholdPercent) {
+        this.significance = significance;
+        this.thresholdPercent = thresholdPercent;
+    }
+
+    public static void main(final String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: ResultsComparison <baseline file or directory> <candidate file or directory> "
+                               + "[significance, default " + DEFAULT_SIGNIFICANCE + "] "
+                               + "[threshold %, default " + DEFAULT_THRESHOLD_PERCENT + "]");
+            System.exit(2);
+        }
+        double significance = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_SIGNIFICANCE;
+        double thresholdPercent = args.length > 3 ? Double.parseDouble(args[3]) : DEFAULT_THRESHOLD_PERCENT;
+        boolean regressed = new ResultsComparison(significance, thresholdPercent)
+                            .compare(ResultsStore.read(new File(args[0])), ResultsStore.read(new File(args[1])), System.out);
+        if (regressed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Prints a CSV line for every test present in both runs.
+     *
+     * @param baselineRecords  the records of the baseline run
+     * @param candidateRecords the records of the candidate run
+     * @param out              where to print the comparison
+     * @return true if any test regressed
+     */
+    public boolean compare(final List<DBObject> baselineRecords, final List<DBObject> candidateRecords, final PrintStream out) {
+        Map<String, Samples> baseline = group(baselineRecords);
+        Map<String, Samples> candidate = group(candidateRecords);
+        boolean regressed = false;
+
+        out.printf("Test,Document Shape,Threads,Parameters,Baseline Ops per Second,Candidate Ops per Second,Change %%,p-value,"
+                   + "Throughput,Baseline Mean Micros,Candidate Mean Micros,Change %%,p-value,Latency,"
+                   + "Baseline p99 Micros,Candidate p99 Micros, %n");
+        for (Map.Entry<String, Samples> entry : baseline.entrySet()) {
+            Samples before = entry.getValue();
+            Samples after = candidate.get(entry.getKey());
+            if (after == null) {
+                continue;
+            }
+            double throughputChange = percentChange(mean(before.throughput), mean(after.throughput));
+            double throughputPValue = pValue(before.throughput, after.throughput);
+            String throughputVerdict = verdict(throughputChange, throughputPValue, true);
+            double latencyChange = percentChange(mean(before.meanLatency), mean(after.meanLatency));
+            double latencyPValue = pValue(before.meanLatency, after.meanLatency);
+            String latencyVerdict = verdict(latencyChange, latencyPValue, false);
+            regressed |= throughputVerdict.equals(REGRESSION) || latencyVerdict.equals(REGRESSION);
+
+            DBObject record = before.firstRecord;
+            out.printf("%s,%s,%s,%s,%.0f,%.0f,%+.1f,%.4f,%s,%.1f,%.1f,%+.1f,%.4f,%s,%.1f,%.1f, %n",
+                       record.get(BenchmarkRecord.TEST), record.get(BenchmarkRecord.DOCUMENT_SHAPE),
+                       record.get(BenchmarkRecord.THREADS), JSON.serialize(record.get(BenchmarkRecord.PARAMETERS)).replace(',', ';'),
+                       mean(before.opsPerSecond), mean(after.opsPerSecond), throughputChange, throughputPValue, throughputVerdict,
+                       mean(before.meanLatency), mean(after.meanLatency), latencyChange, latencyPValue, latencyVerdict,
+                       mean(before.p99), mean(after.p99));
+        }
+        return regressed;
+    }
+
+    private String verdict(final double percentChange, final double pValue, final boolean higherIsBetter) {
+        if (Double.isNaN(pValue)) {
+            return INSUFFICIENT_SAMPLES;
+        }
+        if (pValue >= significance || Math.abs(percentChange) < thresholdPercent) {
+            return NO_CHANGE;
+        }
+        return (percentChange > 0) == higherIsBetter ? IMPROVEMENT : REGRESSION;
+    }
+
+    static String key(final DBObject record) {
+        return record.get(BenchmarkRecord.TEST) + "|" + record.get(BenchmarkRecord.DOCUMENT_SHAPE) + "|"
+               + record.get(BenchmarkRecord.THREADS) + "|" + JSON.serialize(record.get(BenchmarkRecord.PARAMETERS));
+    }
+
+    static Map<String, Samples> group(final List<DBObject> records) {
+        Map<String, Samples> samples = new LinkedHashMap<String, Samples>();
+        for (DBObject record : records) {
+            String key = key(record);
+            Samples group = samples.get(key);
+            if (group == null) {
+                group = new Samples(record);
+                samples.put(key, group);
+            }
+            group.add(record);
+        }
+        return samples;
+    }
+
+    private static double pValue(final List<Double> before, final List<Double> after) {
+        if (before.size() < 2 || after.size() < 2) {
+            return Double.NaN;
+        }
+        return TestUtils.tTest(toArray(before), toArray(after));
+    }
+
+    static double percentChange(final double before, final double after) {
+        return before == 0 ? 0 : 100 * (after - before) / before;
+    }
+
+    static double mean(final List<Double> values) {
+        double sum = 0;
+        for (double value : values) {
+            sum += value;
+        }
+        return values.isEmpty() ? Double.NaN : sum / values.size();
+    }
+
+    private static double[] toArray(final List<Double> values) {
+        double[] array = new double[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+
+    static final class Samples {
+        private final DBObject firstRecord;
+        private final List<Double> opsPerSecond = new ArrayList<Double>();
+        private final List<Double> p99 = new ArrayList<Double>();
+        private final List<Double> throughput = new ArrayList<Double>();
+        private final List<Double> meanLatency = new ArrayList<Double>();
+
+        Samples(final DBObject firstRecord) {
+            this.firstRecord = firstRecord;
+        }
+
+        DBObject getFirstRecord() {
+            return firstRecord;
+        }
+
+        double getMeanOpsPerSecond() {
+            return mean(opsPerSecond);
+        }
+
+        double getMeanP99() {
+            return mean(p99);
+        }
+
+        void add(final DBObject record) {
+            opsPerSecond.add(((Number) record.get(BenchmarkRecord.OPS_PER_SECOND)).doubleValue());
+            DBObject latencies = (DBObject) record.get(BenchmarkRecord.LATENCY_MICROS);
+            if (latencies != null) {
+                p99.add(((Number) latencies.get("p99")).doubleValue());
+            }
+            addAll(throughput, (List<?>) record.get(BenchmarkRecord.THROUGHPUT_SAMPLES));
+            addAll(meanLatency, (List<?>) record.get(BenchmarkRecord.MEAN_LATENCY_MICROS_SAMPLES));
+        }
+
+        private static void addAll(final List<Double> samples, final List<?> values) {
+            if (values != null) {
+                for (Object value : values) {
+                    samples.add(((Number) value).doubleValue());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2008-2014 MongoDB, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mongodb.perf;
+
+import com.mongodb.DBObject;
+import com.mongodb.util.JSON;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Stores {@link BenchmarkRecord}s as one JSON document per line in {@code results/<yyyyMM>/}, in a file named after the driver,
+ * Java and server versions in the same way as the hand-written results, e.g. {@code 2_12_4_Java8_2_6_5-results.json}.  The root
+ * directory can be changed with {@code -Dorg.mongodb.test.results.dir}.
+ */
+public final class ResultsStore {
+    public static final String RESULTS_DIRECTORY_SYSTEM_PROPERTY_NAME = "org.mongodb.test.results.dir";
+    private static final String DEFAULT_RESULTS_DIRECTORY = "results";
+    private static final String RESULTS_FILE_SUFFIX = "-results.json";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private ResultsStore() {
+    }
+
+    static synchronized void write(final BenchmarkRecord record) {
+        DBObject document = record.toDBObject();
+        File directory = new File(getResultsDirectory(), new SimpleDateFormat("yyyyMM").format(new Date()));
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalStateException("Unable to create results directory " + directory.getAbsolutePath());
+        }
+        File file = new File(directory, getFileName(document));
+        try {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(file, true), UTF_8);
+            try {
+                writer.write(JSON.serialize(document));
+                writer.write('\n');
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to write results to " + file.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Reads every record from a results file, or from every results file in a directory and its subdirectories.
+     *
+     * @param fileOrDirectory a results file or a directory such as {@code results/201410}
+     * @return the records, in file order
+     */
+    public static List<DBObject> read(final File fileOrDirectory) {
+        List<DBObject> records = new ArrayList<DBObject>();
+        if (fileOrDirectory.isDirectory()) {
+            File[] files = fileOrDirectory.listFiles();
+            Arrays.sort(files);
+            for (File file : files) {
+                if (file.isDirectory() || file.getName().endsWith(RESULTS_FILE_SUFFIX)) {
+                    records.addAll(read(file));
+                }
+            }
+            return records;
+        }
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(fileOrDirectory), UTF_8));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.trim().length() != 0) {
+                        records.add((DBObject) JSON.parse(line));
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to read results from " + fileOrDirectory.getAbsolutePath(), e);
+        }
+        return records;
+    }
+
+    private static File getResultsDirectory() {
+        String directoryName = System.getProperty(RESULTS_DIRECTORY_SYSTEM_PROPERTY_NAME);
+        return new File(directoryName == null || directoryName.length() == 0 ? DEFAULT_RESULTS_DIRECTORY : directoryName);
+    }
+
+    private static String getFileName(final DBObject document) {
+        String javaVersion = (String) document.get(BenchmarkRecord.JAVA_VERSION);
+        String javaMajorVersion = javaVersion.startsWith("1.") ? javaVersion.substring(2, 3) : javaVersion.split("[.-]")[0];
+        return toFileNamePart((String) document.get(BenchmarkRecord.DRIVER_VERSION)) + "_Java" + javaMajorVersion + "_"
+               + toFileNamePart((String) document.get(BenchmarkRecord.SERVER_VERSION)) + RESULTS_FILE_SUFFIX;
+    }
+
+    private static String toFileNamePart(final String version) {
+        return version.replaceAll("[^A-Za-z0-9]+", "_");
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2008-2014 MongoDB, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mongodb.perf;
+
+import com.mongodb.DBCollection;
+
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a workload on the calling thread until its throughput settles, rather than for a fixed number of operations.  Throughput is
+ * sampled in windows of {@value #WINDOW_MILLIS} millis, and the warmup ends once the coefficient of variation of the last
+ * {@value #WINDOWS_TO_COMPARE} windows is below the threshold, and the JIT spent less than a tenth of those windows compiling, or
+ * when the timeout is reached.  Throughput can look flat while the compiler is still busy, so the compiling time is checked too,
+ * where the JVM reports it; where it doesn't, only the throughput is checked.
+ *
+ * <pre>
+ *    SteadyStateWarmup warmup = SteadyStateWarmup.run("Insert", insert);
+ *    ...
+ *    new BenchmarkRecord(...).warmup(warmup).write();
+ * </pre>
+ *
+ * <p>A single-threaded test that measures writes warms up with {@link #onScratchCollection}, so that the collection it measures
+ * starts empty.</p>
+ *
+ * <p>The threshold can be set with {@code -Dorg.mongodb.test.warmup.cv}, e.g. 0.05 for 5%, and the timeout in seconds with
+ * {@code -Dorg.mongodb.test.warmup.timeout}.</p>
+ */
+public final class SteadyStateWarmup {
+    public static final String COEFFICIENT_OF_VARIATION_SYSTEM_PROPERTY_NAME = "org.mongodb.test.warmup.cv";
+    public static final String TIMEOUT_SYSTEM_PROPERTY_NAME = "org.mongodb.test.warmup.timeout";
+    static final int WINDOW_MILLIS = 200;
+    static final int WINDOWS_TO_COMPARE = 5;
+    private static final double DEFAULT_COEFFICIENT_OF_VARIATION = 0.05;
+    private static final int DEFAULT_TIMEOUT_SECONDS = 30;
+    private static final int MAX_COMPILATION_FRACTION = 10;
+    private static final double NANOS_IN_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final String name;
+    private final long operations;
+    private final long elapsedMillis;
+    private final double coefficientOfVariation;
+    private final boolean steady;
+    private final long compilationMillis;
+    private final long finalWindowsCompilationMillis;
+
+    private SteadyStateWarmup(final String name, final long operations, final long elapsedMillis, final double coefficientOfVariation,
+                              final boolean steady, final long compilationMillis, final long finalWindowsCompilationMillis) {
+        this.name = name;
+        this.operations = operations;
+        this.elapsedMillis = elapsedMillis;
+        this.coefficientOfVariation = coefficientOfVariation;
+        this.steady = steady;
+        this.compilationMillis = compilationMillis;
+        this.finalWindowsCompilationMillis = finalWindowsCompilationMillis;
+    }
+
+    /**
+     * Runs the workload, as thread 0, until its throughput is steady or the timeout is reached, and prints how long it took.
+     *
+     * @param name     the name to print
+     * @param workload the operation to repeat
+     * @return the outcome of the warmup
+     */
+    public static SteadyStateWarmup run(final String name, final Workload workload) {
+        double threshold = Double.parseDouble(System.getProperty(COEFFICIENT_OF_VARIATION_SYSTEM_PROPERTY_NAME,
+                                                                 String.valueOf(DEFAULT_COEFFICIENT_OF_VARIATION)));
+        long timeoutNanos = TimeUnit.SECONDS.toNanos(Integer.getInteger(TIMEOUT_SYSTEM_PROPERTY_NAME, DEFAULT_TIMEOUT_SECONDS));
+        long windowNanos = TimeUnit.MILLISECONDS.toNanos(WINDOW_MILLIS);
+
+        List<Double> windowThroughput = new ArrayList<Double>();
+        List<Long> windowCompilationMillis = new ArrayList<Long>();
+        long startCompilationMillis = getTotalCompilationMillis();
+        boolean compilationMonitored = startCompilationMillis >= 0;
+        long windowCompilationStart = startCompilationMillis;
+        long start = System.nanoTime();
+        long windowStart = start;
+        long windowOperations = 0;
+        int operation = 0;
+        double coefficientOfVariation = Double.NaN;
+        boolean steady = false;
+        while (true) {
+            workload.execute(0, operation++);
+            windowOperations++;
+            long now = System.nanoTime();
+            if (now - windowStart >= windowNanos) {
+                long compilationMillis = getTotalCompilationMillis();
+                windowThroughput.add(windowOperations * NANOS_IN_SECOND / (now - windowStart));
+                windowCompilationMillis.add(compilationMillis - windowCompilationStart);
+                windowCompilationStart = compilationMillis;
+                windowStart = now;
+                windowOperations = 0;
+                if (windowThroughput.size() >= WINDOWS_TO_COMPARE) {
+                    coefficientOfVariation = coefficientOfVariation(lastWindows(windowThroughput));
+                    if (coefficientOfVariation <= threshold
+                        && sum(lastWindows(windowCompilationMillis)) * MAX_COMPILATION_FRACTION <= WINDOW_MILLIS * WINDOWS_TO_COMPARE) {
+                        steady = true;
+                        break;
+                    }
+                }
+                if (now - start >= timeoutNanos) {
+                    break;
+                }
+            }
+        }
+
+        SteadyStateWarmup warmup = new SteadyStateWarmup(name, operation, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                                                         coefficientOfVariation, steady,
+                                                         compilationMonitored ? getTotalCompilationMillis() - startCompilationMillis : -1,
+                                                         compilationMonitored ? sum(lastWindows(windowCompilationMillis)) : -1);
+        System.out.println(warmup);
+        return warmup;
+    }
+
+    /**
+     * Runs the workload, as {@link #run} does, against a scratch collection next to {@code collection}, then drops the scratch
+     * collection and collects the garbage the warmup left, so that the measured collection and the heap start clean.
+     *
+     * @param name       the name to print
+     * @param collection the collection that will be measured
+     * @param workload   the operation to repeat on the scratch collection
+     * @return the outcome of the warmup
+     */
+    public static SteadyStateWarmup onScratchCollection(final String name, final DBCollection collection,
+                                                        final ScratchCollectionWorkload workload) {
+        final DBCollection scratchCollection = getScratchCollection(collection);
+        SteadyStateWarmup warmup = run(name, new Workload() {
+            @Override
+            public void execute(final int threadIndex, final int operation) {
+                workload.execute(scratchCollection, operation);
+            }
+        });
+        scratchCollection.drop();
+        System.gc();
+        System.gc();
+        return warmup;
+    }
+
+    /**
+     * @param collection the collection that will be measured
+     * @return the scratch collection that {@link #onScratchCollection} warms up on, for a test that has to populate it first
+     */
+    static DBCollection getScratchCollection(final DBCollection collection) {
+        return collection.getDB().getCollection(collection.getName() + ".warmup");
+    }
+
+    public long getOperations() {
+        return operations;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * @return the coefficient of variation of the throughput of the last windows, or NaN if the timeout came before
+     *         {@value #WINDOWS_TO_COMPARE} windows were recorded
+     */
+    public double getCoefficientOfVariation() {
+        return coefficientOfVariation;
+    }
+
+    /**
+     * @return false if the timeout was reached before the throughput and the JIT settled
+     */
+    public boolean isSteady() {
+        return steady;
+    }
+
+    /**
+     * @return the time the JIT spent compiling during the warmup, or -1 if the JVM doesn't report it
+     */
+    public long getCompilationMillis() {
+        return compilationMillis;
+    }
+
+    /**
+     * @return the time the JIT spent compiling during the windows compared at the end, or -1 if the JVM doesn't report it
+     */
+    public long getFinalWindowsCompilationMillis() {
+        return finalWindowsCompilationMillis;
+    }
+
+    @Override
+    public String toString() {
+        String compilation = compilationMillis < 0
+                             ? "JIT compiling time not reported"
+                             : String.format("JIT compiling for %d millis, %d in the last %d windows", compilationMillis,
+                                             finalWindowsCompilationMillis, WINDOWS_TO_COMPARE);
+        return String.format("Warmup %s %s after %,d millis and %,d operations, throughput varying %.1f%%, %s", name,
+                             steady ? "steady" : "timed out", elapsedMillis, operations, 100 * coefficientOfVariation, compilation);
+    }
+
+    /**
+     * An operation for {@link #onScratchCollection} to repeat.
+     */
+    public interface ScratchCollectionWorkload {
+        /**
+         * @param scratchCollection the collection to warm up on
+         * @param operation         the index of the operation, from 0
+         */
+        void execute(DBCollection scratchCollection, int operation);
+    }
+
+    private static <T> List<T> lastWindows(final List<T> windows) {
+        return windows.subList(Math.max(0, windows.size() - WINDOWS_TO_COMPARE), windows.size());
+    }
+
+    private static long sum(final List<Long> values) {
+        long sum = 0;
+        for (long value : values) {
+            sum += value;
+        }
+        return sum;
+    }
+
+    private static double coefficientOfVariation(final List<Double> samples) {
+        double sum = 0;
+        for (double sample : samples) {
+            sum += sample;
+        }
+        double mean = sum / samples.size();
+        double sumOfSquares = 0;
+        for (double sample : samples) {
+            sumOfSquares += (sample - mean) * (sample - mean);
+        }
+        return Math.sqrt(sumOfSquares / samples.size()) / mean;
+    }
+
+    private static long getTotalCompilationMillis() {
+        CompilationMXBean compilation = ManagementFactory.getCompilationMXBean();
+        return compilation != null && compilation.isCompilationTimeMonitoringSupported() ? compilation.getTotalCompilationTime() : -1;
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2008-2014 MongoDB, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mongodb.perf;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.Fixture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streams whole collections through a cursor, the way an export does, sweeping the cursor batch size, the limit and the
+ * projection over collections of increasing size.  Each scan reports documents per second, the number of getMore round trips
+ * and the heap high-water mark, so that settings which keep memory flat can be told apart from ones which don't.  The
+ * collection sizes can be set with {@code -Dorg.mongodb.test.scan.sizes=10000,100000,...}.
+ */
+public class StreamingScanPerformanceTest {
+    public static final String COLLECTION_SIZES_SYSTEM_PROPERTY_NAME = "org.mongodb.test.scan.sizes";
+    private static final String DEFAULT_COLLECTION_SIZES = "10000,100000,1000000";
+    private static final int[] BATCH_SIZES = {0, 100, 1000, 10_000};
+    private static final int[] LIMITS = {1000, 100_000};
+    private static final int MIN_DOCUMENTS_SCANNED = 1_000_000;
+    private static final int MIN_SCANS = 3;
+    private static final int NUMBER_OF_FIELDS = 10;
+    private static final double NUM_MILLIS_IN_SECOND = 1000;
+    private static final double BYTES_IN_MEGABYTE = 1024 * 1024;
+
+    private DB database;
+    private DBCollection collection;
+    private final List<ScanResult> results = new ArrayList<ScanResult>();
+    @SuppressWarnings("PublicField")
+    public long fieldCountToAvoidOptimization;
+
+    @Before
+    public void setUp() {
+        database = Fixture.getDefaultDatabase();
+        collection = database.getCollection(this.getClass().getName());
+        collection.drop();
+    }
+
+    @After
+    public void tearDown() {
+        if (collection != null) {
+            collection.drop();
+        }
+        if (database != null) {
+            database.dropDatabase();
+        }
+    }
+
+    @Test
+    public void testStreamingScanWithBatchSizes() {
+        for (int collectionSize : getCollectionSizes()) {
+            populateCollection(collectionSize);
+            for (int batchSize : BATCH_SIZES) {
+                scan("Streaming Scan batchSize " + batchSize, collectionSize, batchSize, 0, null);
+            }
+        }
+        printResults();
+    }
+
+    @Test
+    public void testStreamingScanWithLimits() {
+        for (int collectionSize : getCollectionSizes()) {
+            populateCollection(collectionSize);
+            for (int limit : LIMITS) {
+                if (limit < collectionSize) {
+                    scan("Streaming Scan limit " + limit, collectionSize, 0, limit, null);
+                }
+            }
+        }
+        printResults();
+    }
+
+    @Test
+    public void testStreamingScanWithProjection() {
+        DBObject projection = new BasicDBObject("field0", 1).append("_id", 0);
+        for (int collectionSize : getCollectionSizes()) {
+            populateCollection(collectionSize);
+            scan("Streaming Scan all fields", collectionSize, 0, 0, null);
+            scan("Streaming Scan 1 field projection", collectionSize, 0, 0, projection);
+            scan("Streaming Scan 1 field projection batchSize 10000", collectionSize, 10_000, 0, projection);
+        }
+        printResults();
+    }
+
+    private void scan(final String name, final int collectionSize, final int batchSize, final int limit,
+                      final DBObject projection) {
+        int documentsPerScan = limit == 0 ? collectionSize : Math.min(limit, collectionSize);
+        int numberOfScans = Math.max(MIN_SCANS, MIN_DOCUMENTS_SCANNED / documentsPerScan);
+        LatencyHistogram latencies = new LatencyHistogram(name + " of " + collectionSize + " Documents");
+
+        // scans until they are steady first, so that the measured ones don't pay for loading the collection or compiling the
+        // decoding path
+        final LatencyHistogram warmupLatencies = new LatencyHistogram("Warmup");
+        SteadyStateWarmup warmup = SteadyStateWarmup.run(latencies.getName(), new Workload() {
+            @Override
+            public void execute(final int threadIndex, final int operation) {
+                scanOnce(batchSize, limit, projection, warmupLatencies);
+            }
+        });
+        System.gc();
+        System.gc();
+        long heapBeforeScans = AllocationMonitor.resetPeakHeapUsage();
+
+        long documents = 0;
+        long getMores = 0;
+        AllocationMonitor allocations = AllocationMonitor.start();
+        long startTime = System.currentTimeMillis();
+        for (int i = 0; i < numberOfScans; i++) {
+            DBCursor cursor = scanOnce(batchSize, limit, projection, latencies);
+            documents += cursor.numSeen();
+            getMores += getNumberOfGetMores(cursor);
+        }
+        long timeTaken = System.currentTimeMillis() - startTime;
+        long peakHeap = AllocationMonitor.getPeakHeapUsage();
+        allocations.stop(documents);
+
+        ScanResult result = new ScanResult(latencies.getName(), collectionSize, batchSize, limit, projection != null, documents,
+                                           timeTaken, getMores / numberOfScans, heapBeforeScans, peakHeap);
+        results.add(result);
+        latencies.report();
+        allocations.report(latencies.getName());
+        new BenchmarkRecord(name, NUMBER_OF_FIELDS + " string fields")
+                .parameter("collectionSize", collectionSize)
+                .parameter("batchSize", batchSize)
+                .parameter("limit", limit)
+                .parameter("projection", projection == null ? "all fields" : projection.toString())
+                .operations(documents, timeTaken)
+                .latencies(latencies)
+                .allocations(allocations)
+                .metric("getMoresPerScan", result.getMoresPerScan)
+                .metric("heapBeforeScansBytes", heapBeforeScans)
+                .metric("peakHeapBytes", peakHeap)
+                .warmup(warmup)
+                .write();
+    }
+
+    // deprecated, but 2.12 has no other way to count the getMores a cursor sent
+    @SuppressWarnings("deprecation")
+    private static int getNumberOfGetMores(final DBCursor cursor) {
+        return cursor.numGetMores();
+    }
+
+    // Every call to next() is timed, so the slow tail of the histogram shows the documents that waited on a getMore
+    private DBCursor scanOnce(final int batchSize, final int limit, final DBObject projection, final LatencyHistogram latencies) {
+        DBCursor cursor = collection.find(new BasicDBObject(), projection).batchSize(batchSize).limit(limit);
+        try {
+            while (true) {
+                long operationStart = System.nanoTime();
+                if (!cursor.hasNext()) {
+                    break;
+                }
+                fieldCountToAvoidOptimization += cursor.next().keySet().size();
+                latencies.recordSince(operationStart);
+            }
+        } finally {
+            cursor.close();
+        }
+        return cursor;
+    }
+
+    private void populateCollection(final int numberOfDocuments) {
+        collection.drop();
+        new BulkLoader(collection).load(numberOfDocuments, new BulkLoader.DocumentSource() {
+            @Override
+            public DBObject createDocument(final int id) {
+                BasicDBObject document = new BasicDBObject("_id", id);
+                for (int field = 0; field < NUMBER_OF_FIELDS; field++) {
+                    document.put("field" + field, "value " + field + " of document " + id);
+                }
+                return document;
+            }
+        });
+    }
+
+    private void printResults() {
+        System.out.printf("Test,Collection Size,Batch Size,Limit,Projection,Docs per Second,Time Taken Millis,"
+                          + "getMores per Scan,Heap Before MB,Peak Heap MB, %n");
+        for (ScanResult result : results) {
+            System.out.printf("%s,%d,%d,%d,%b,%.0f,%d,%d,%.1f,%.1f, %n", result.name, result.collectionSize, result.batchSize,
+                              result.limit, result.projection, result.documents * NUM_MILLIS_IN_SECOND / result.timeTaken,
+                              result.timeTaken, result.getMoresPerScan, result.heapBeforeScans / BYTES_IN_MEGABYTE,
+                              result.peakHeap / BYTES_IN_MEGABYTE);
+        }
+    }
+
+    static List<Integer> getCollectionSizes() {
+        String sizesProperty = System.getProperty(COLLECTION_SIZES_SYSTEM_PROPERTY_NAME);
+        String sizes = sizesProperty == null || sizesProperty.length() == 0 ? DEFAULT_COLLECTION_SIZES : sizesProperty;
+        List<Integer> collectionSizes = new ArrayList<Integer>();
+        for (String size : sizes.split(",")) {
+            collectionSizes.add(Integer.parseInt(size.trim()));
+        }
+        return collectionSizes;
+    }
+
+    private static final class ScanResult {
+        private final String name;
+        private final int collectionSize;
+        private final int batchSize;
+        private final int limit;
+        private final boolean projection;
+        private final long documents;
+        private final long timeTaken;
+        private final long getMoresPerScan;
+        private final long heapBeforeScans;
+        private final long peakHeap;
+
+        private ScanResult(final String name, final int collectionSize, final int batchSize, final int limit,
+                           final boolean projection, final long documents, final long timeTaken, final long getMoresPerScan,
+                           final long heapBeforeScans, final long peakHeap) {
+            this.name = name;
+            this.collectionSize = collectionSize;
+            this.batchSize = batchSize;
+            this.limit = limit;
+            this.projection = projection;
+            this.documents = documents;
+            this.timeTaken = timeTaken;
+            this.getMoresPerScan = getMoresPerScan;
+            this.heapBeforeScans = heapBeforeScans;
+            this.peakHeap = peakHeap;
+        }
+    }
+}
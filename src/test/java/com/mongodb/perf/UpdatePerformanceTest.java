@@ -33,21 +33,19 @@ public class UpdatePerformanceTest {
         }
     }
 
-    private void warmup(final int numberOfRuns, final BasicDBObject document) {
-        for (int i = 0; i < numberOfRuns; i++) {
-            document.removeField("_id");
-            collection.insert(document);
-            collection.update(document, new BasicDBObject("$set", new BasicDBObject("new field", "new value")));
-        }
-        System.gc();
-        System.gc();
+    private SteadyStateWarmup warmup(final BasicDBObject document) {
+        return SteadyStateWarmup.onScratchCollection("Update", collection, new SteadyStateWarmup.ScratchCollectionWorkload() {
+            @Override
+            public void execute(final DBCollection scratchCollection, final int operation) {
+                document.removeField("_id");
+                scratchCollection.insert(document);
+                scratchCollection.update(document, new BasicDBObject("$set", new BasicDBObject("new field", "new value")));
+            }
+        });
     }
 
     private void populateCollection(final int numberOfDocuments, final DBObject document) {
-        for (int i = 0; i < numberOfDocuments; i++) {
-            document.put("_id", i);
-            collection.insert(document);
-        }
+        new BulkLoader(collection).load(numberOfDocuments, BulkLoader.copiesOf(document));
         System.gc();
         System.gc();
     }
@@ -55,16 +53,21 @@ public class UpdatePerformanceTest {
     @Test
     public void testPerformanceOfUpdateForSingleDocumentWithSingleStringField() {
         // Given
-        warmup(10_000, new BasicDBObject("test", "Document"));
-        collection.remove(new BasicDBObject());
+        SteadyStateWarmup warmup = warmup(new BasicDBObject("test", "Document"));
         populateCollection(NUMBER_OF_OPERATIONS, new BasicDBObject("name", "String value"));
 
+        LatencyHistogram latencies = new LatencyHistogram("Update Single Document");
+
         // When
+        AllocationMonitor allocations = AllocationMonitor.start();
         long startTime = System.currentTimeMillis();
         for (int i = 0; i < NUMBER_OF_OPERATIONS; i++) {
+            long operationStart = System.nanoTime();
             collection.update(new BasicDBObject("_id", i), new BasicDBObject("$set", new BasicDBObject("new field", "new value")));
+            latencies.recordSince(operationStart);
         }
         long endTime = System.currentTimeMillis();
+        allocations.stop(NUMBER_OF_OPERATIONS);
 
         // Then
         long timeTaken = endTime - startTime;
@@ -74,6 +77,10 @@ public class UpdatePerformanceTest {
         System.out.printf("%.0f ops per second%n", operationsPerSecond);
         System.out.printf("Test,Ops per Second,Time Taken Millis, %n");
         System.out.printf("Update Single Document,%.0f,%d, %n", operationsPerSecond, timeTaken);
+        latencies.report();
+        allocations.report(latencies.getName());
+        new BenchmarkRecord(latencies.getName(), "1 string field")
+                .operations(NUMBER_OF_OPERATIONS, timeTaken).latencies(latencies).allocations(allocations).warmup(warmup).write();
     }
 
 }
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2008-2014 MongoDB, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mongodb.perf;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.Fixture;
+import com.mongodb.MongoClient;
+import com.mongodb.MongoClientOptions;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs the insert and query workloads on thousands of virtual threads and on the same number of platform threads, reporting
+ * throughput, latency and how often the blocking driver pinned a virtual thread to its carrier.  Needs Java 21 or later; the
+ * thread counts can be set with {@code -Dorg.mongodb.test.virtual.threads=1000,5000}.
+ */
+public class VirtualThreadPerformanceTest {
+    public static final String VIRTUAL_THREADS_SYSTEM_PROPERTY_NAME = "org.mongodb.test.virtual.threads";
+    private static final String DEFAULT_THREAD_COUNTS = "1000,5000";
+    private static final int TOTAL_OPERATIONS = 100_000;
+    private static final int NUMBER_OF_DOCUMENTS = 100;
+    // with the default pool of 100 connections this lets 10,000 threads wait for a connection
+    private static final int THREADS_ALLOWED_TO_BLOCK_MULTIPLIER = 100;
+
+    private MongoClient mongoClient;
+    private DB database;
+    private DBCollection collection;
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue("Virtual threads need Java 21 or later", VirtualThreads.isSupported());
+        mongoClient = Fixture.createMongoClient(MongoClientOptions.builder()
+                                                                  .threadsAllowedToBlockForConnectionMultiplier(
+                                                                          THREADS_ALLOWED_TO_BLOCK_MULTIPLIER));
+        database = mongoClient.getDB(Fixture.getDefaultDatabase().getName());
+        collection = database.getCollection(this.getClass().getName());
+        collection.drop();
+    }
+
+    @After
+    public void tearDown() {
+        if (collection != null) {
+            collection.drop();
+        }
+        if (database != null) {
+            database.dropDatabase();
+        }
+        if (mongoClient != null) {
+            mongoClient.close();
+        }
+    }
+
+    @Test
+    public void testPerformanceOfInsertOnVirtualThreads() {
+        final int maxThreads = getThreadCounts().get(getThreadCounts().size() - 1);
+        final DBObject[] documents = new DBObject[maxThreads];
+        for (int i = 0; i < maxThreads; i++) {
+            documents[i] = new BasicDBObject("name", "String value");
+        }
+        Workload insert = new Workload() {
+            @Override
+            public void execute(final int threadIndex, final int operation) {
+                DBObject document = documents[threadIndex];
+                document.removeField("_id");
+                collection.insert(document);
+            }
+        };
+
+        SteadyStateWarmup warmup = SteadyStateWarmup.onScratchCollection("Virtual Thread Insert", collection,
+                                                                         new SteadyStateWarmup.ScratchCollectionWorkload() {
+            @Override
+            public void execute(final DBCollection scratchCollection, final int operation) {
+                DBObject document = documents[0];
+                document.removeField("_id");
+                scratchCollection.insert(document);
+            }
+        });
+        for (int threads : getThreadCounts()) {
+            compare("Virtual Thread Insert", insert, threads, warmup, true);
+        }
+    }
+
+    @Test
+    public void testPerformanceOfQueryOnVirtualThreads() {
+        DBObject document = new BasicDBObject("name", "String value");
+        for (int i = 0; i < NUMBER_OF_DOCUMENTS; i++) {
+            document.removeField("_id");
+            collection.insert(document);
+        }
+        Workload query = new Workload() {
+            @Override
+            public void execute(final int threadIndex, final int operation) {
+                if (collection.find().one() == null) {
+                    throw new IllegalStateException("Expected to find a document");
+                }
+            }
+        };
+
+        SteadyStateWarmup warmup = SteadyStateWarmup.run("Virtual Thread Query", query);
+        System.gc();
+        System.gc();
+        for (int threads : getThreadCounts()) {
+            compare("Virtual Thread Query", query, threads, warmup, false);
+        }
+    }
+
+    // an insert workload empties the collection before each run, so that the virtual threads don't insert on top of the
+    // platform threads' documents
+    private void compare(final String name, final Workload workload, final int threads, final SteadyStateWarmup warmup,
+                         final boolean emptyCollectionFirst) {
+        System.out.printf("Test,Thread Type,Threads,Ops per Second,Time Taken Millis,Pinned Events,Pinned Millis, %n");
+        if (emptyCollectionFirst) {
+            collection.remove(new BasicDBObject());
+        }
+        run(name, "platform", new ConcurrentLoadRunner.NamedThreadFactory(name), workload, threads, warmup);
+        if (emptyCollectionFirst) {
+            collection.remove(new BasicDBObject());
+        }
+        run(name, "virtual", VirtualThreads.newThreadFactory(name), workload, threads, warmup);
+    }
+
+    private void run(final String name, final String threadType, final ThreadFactory threadFactory, final Workload workload,
+                     final int threads, final SteadyStateWarmup warmup) {
+        VirtualThreads.PinningRecorder pinning = new VirtualThreads.PinningRecorder();
+        pinning.start();
+        LoadResult result = new ConcurrentLoadRunner(name + " " + threadType, threads, threadFactory)
+                            .run(workload, TOTAL_OPERATIONS / threads);
+        pinning.stop();
+
+        System.out.printf("%s,%s,%d,%.0f,%d,%d,%d, %n", name, threadType, threads, result.getOperationsPerSecond(),
+                          result.getElapsedMillis(), pinning.getPinnedEvents(), pinning.getPinnedMillis());
+        result.getLatencies().report();
+        result.getAllocations().report(result.getLatencies().getName());
+        new BenchmarkRecord(name, "1 string field").parameter("threadType", threadType).loadResult(result).warmup(warmup)
+                .metric("pinnedEvents", pinning.getPinnedEvents()).metric("pinnedMillis", pinning.getPinnedMillis()).write();
+    }
+
+    private static List<Integer> getThreadCounts() {
+        String threadsProperty = System.getProperty(VIRTUAL_THREADS_SYSTEM_PROPERTY_NAME, DEFAULT_THREAD_COUNTS);
+        List<Integer> threadCounts = new ArrayList<Integer>();
+        for (String threads : threadsProperty.split(",")) {
+            threadCounts.add(Integer.parseInt(threads.trim()));
+        }
+        Collections.sort(threadCounts);
+        return threadCounts;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2008-2014 MongoDB, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mongodb.perf;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Access to virtual threads and to the JDK Flight Recorder events that report when a virtual thread pins its carrier.  The
+ * tests are compiled for Java 7, so everything here is looked up reflectively and is only available when running on Java 21 or
+ * later.
+ */
+final class VirtualThreads {
+    private static final String PINNED_EVENT_NAME = "jdk.VirtualThreadPinned";
+
+    private VirtualThreads() {
+    }
+
+    static boolean isSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            Class.forName("jdk.jfr.Recording");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param prefix the prefix of the thread names
+     * @return a factory for virtual threads, equivalent to {@code Thread.ofVirtual().name(prefix + "-", 0).factory()}
+     */
+    static ThreadFactory newThreadFactory(final String prefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix + "-", 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Virtual threads are not supported by this JVM", e);
+        }
+    }
+
+    /**
+     * Records every {@code jdk.VirtualThreadPinned} event between {@link #start()} and {@link #stop()}, regardless of how long
+     * the carrier was pinned for.
+     */
+    static final class PinningRecorder {
+        private Object recording;
+        private long pinnedEvents;
+        private long pinnedNanos;
+
+        void start() {
+            try {
+                Class<?> recordingClass = Class.forName("jdk.jfr.Recording");
+                recording = recordingClass.getConstructor().newInstance();
+                Object settings = recordingClass.getMethod("enable", String.class).invoke(recording, PINNED_EVENT_NAME);
+                Class.forName("jdk.jfr.EventSettings").getMethod("withoutThreshold").invoke(settings);
+                recordingClass.getMethod("start").invoke(recording);
+            } catch (ReflectiveOperationException e) {
+                throw new UnsupportedOperationException("Flight Recorder is not available in this JVM", e);
+            }
+        }
+
+        void stop() {
+            try {
+                Class<?> recordingClass = recording.getClass();
+                recordingClass.getMethod("stop").invoke(recording);
+                Path file = Files.createTempFile("virtual-thread-pinning", ".jfr");
+                try {
+                    recordingClass.getMethod("dump", Path.class).invoke(recording, file);
+                    List<?> events = (List<?>) Class.forName("jdk.jfr.consumer.RecordingFile")
+                                                    .getMethod("readAllEvents", Path.class).invoke(null, file);
+                    Method getDuration = Class.forName("jdk.jfr.consumer.RecordedEvent").getMethod("getDuration");
+                    Method toNanos = Class.forName("java.time.Duration").getMethod("toNanos");
+                    for (Object event : events) {
+                        pinnedEvents++;
+                        pinnedNanos += (Long) toNanos.invoke(getDuration.invoke(event));
+                    }
+                } finally {
+                    recordingClass.getMethod("close").invoke(recording);
+                    Files.delete(file);
+                }
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Unable to read the Flight Recorder events", e);
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to read the Flight Recorder events", e);
+            }
+        }
+
+        long getPinnedEvents() {
+            return pinnedEvents;
+        }
+
+        long getPinnedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(pinnedNanos);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) 2008-2014 MongoDB, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mongodb.perf;
+
+/**
+ * A single operation, executed repeatedly by each thread of a {@link ConcurrentLoadRunner}.  Implementations are shared between
+ * threads, so any per-thread state must be indexed by {@code threadIndex}.
+ */
+public interface Workload {
+    /**
+     * Performs one operation.
+     *
+     * @param threadIndex the index of the calling thread, from 0 to the number of threads - 1
+     * @param operation   the number of operations this thread has already performed
+     */
+    void execute(int threadIndex, int operation);
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2008-2014 MongoDB, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mongodb.perf;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.Fixture;
+import com.mongodb.MongoException;
+import com.mongodb.WriteConcern;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Runs the insert, update, delete and batch insert workloads with each write concern, to show how much throughput unacknowledged
+ * writes gain by not waiting for the server and what each level of durability costs in latency.  Majority is only run against a
+ * replica set, and journaled only against a server with journaling enabled.
+ *
+ * <p>Unacknowledged writes only measure how long it takes to put them on the wire, so each unacknowledged run finishes with an
+ * acknowledged count on the same connection, which waits for the server to catch up, inside the timed section.  Journaled and
+ * majority writes wait for the journal commit interval or for replication, so they do fewer operations.  Each test warms up on a
+ * scratch collection with the operation it measures and the write concern under test.</p>
+ */
+@RunWith(Parameterized.class)
+public class WriteConcernPerformanceTest {
+    private static final double NUM_MILLIS_IN_SECOND = 1000;
+    private static final int BATCH_SIZE = 1000;
+    private static final int WARMUP_DOCUMENTS = 1000;
+
+    private final String writeConcernName;
+    private final WriteConcern writeConcern;
+    private final int numberOfOperations;
+    private DB database;
+    private DBCollection collection;
+
+    public WriteConcernPerformanceTest(final String writeConcernName, final WriteConcern writeConcern,
+                                       final int numberOfOperations) {
+        this.writeConcernName = writeConcernName;
+        this.writeConcern = writeConcern;
+        this.numberOfOperations = numberOfOperations;
+    }
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> writeConcerns() {
+        return Arrays.asList(new Object[][]{
+                                 {"UNACKNOWLEDGED", WriteConcern.UNACKNOWLEDGED, 20_000},
+                                 {"ACKNOWLEDGED", WriteConcern.ACKNOWLEDGED, 20_000},
+                                 {"JOURNALED", WriteConcern.JOURNALED, 1_000},
+                                 {"majority", WriteConcern.MAJORITY, 5_000}
+                             });
+    }
+
+    @Before
+    public void setUp() {
+        database = Fixture.getDefaultDatabase();
+        collection = database.getCollection(this.getClass().getName());
+        collection.drop();
+        if (writeConcern.equals(WriteConcern.MAJORITY)) {
+            Assume.assumeTrue("Majority write concern needs a replica set", Fixture.isReplicaSet());
+        }
+        try {
+            collection.insert(new BasicDBObject("test", "Document"), writeConcern);
+        } catch (MongoException e) {
+            Assume.assumeNoException(e);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        if (collection != null) {
+            collection.drop();
+        }
+        if (database != null) {
+            database.dropDatabase();
+        }
+    }
+
+    @Test
+    public void testPerformanceOfInsert() {
+        final DBObject document = new BasicDBObject("name", "String value");
+        SteadyStateWarmup warmup = warmup("Insert", new SteadyStateWarmup.ScratchCollectionWorkload() {
+            @Override
+            public void execute(final DBCollection scratchCollection, final int operation) {
+                document.removeField("_id");
+                scratchCollection.insert(document, writeConcern);
+            }
+        });
+
+        LatencyHistogram latencies = new LatencyHistogram("Insert " + writeConcernName);
+        database.requestStart();
+        try {
+            AllocationMonitor allocations = AllocationMonitor.start();
+            long startTime = System.currentTimeMillis();
+            for (int i = 0; i < numberOfOperations; i++) {
+                document.removeField("_id");
+                long operationStart = System.nanoTime();
+                collection.insert(document, writeConcern);
+                latencies.recordSince(operationStart);
+            }
+            waitForUnacknowledgedWrites();
+            long timeTaken = System.currentTimeMillis() - startTime;
+            allocations.stop(numberOfOperations);
+            report(latencies, allocations, warmup, numberOfOperations, timeTaken, 1);
+        } finally {
+            database.requestDone();
+        }
+    }
+
+    @Test
+    public void testPerformanceOfUpdate() {
+        final DBObject update = new BasicDBObject("$set", new BasicDBObject("new field", "new value"));
+        DBCollection warmupCollection = SteadyStateWarmup.getScratchCollection(collection);
+        new BulkLoader(warmupCollection).load(WARMUP_DOCUMENTS, BulkLoader.copiesOf(new BasicDBObject("name", "String value")));
+        SteadyStateWarmup warmup = warmup("Update", new SteadyStateWarmup.ScratchCollectionWorkload() {
+            @Override
+            public void execute(final DBCollection scratchCollection, final int operation) {
+                scratchCollection.update(new BasicDBObject("_id", operation % WARMUP_DOCUMENTS), update, false, false, writeConcern);
+            }
+        });
+        populateCollection(numberOfOperations);
+
+        LatencyHistogram latencies = new LatencyHistogram("Update " + writeConcernName);
+        database.requestStart();
+        try {
+            AllocationMonitor allocations = AllocationMonitor.start();
+            long startTime = System.currentTimeMillis();
+            for (int i = 0; i < numberOfOperations; i++) {
+                long operationStart = System.nanoTime();
+                collection.update(new BasicDBObject("_id", i), update, false, false, writeConcern);
+                latencies.recordSince(operationStart);
+            }
+            waitForUnacknowledgedWrites();
+            long timeTaken = System.currentTimeMillis() - startTime;
+            allocations.stop(numberOfOperations);
+            report(latencies, allocations, warmup, numberOfOperations, timeTaken, 1);
+        } finally {
+            database.requestDone();
+        }
+    }
+
+    @Test
+    public void testPerformanceOfDelete() {
+        // a warmup of deletes alone would run out of documents, so each deleted document is inserted first, acknowledged
+        SteadyStateWarmup warmup = warmup("Delete", new SteadyStateWarmup.ScratchCollectionWorkload() {
+            @Override
+            public void execute(final DBCollection scratchCollection, final int operation) {
+                scratchCollection.insert(new BasicDBObject("_id", operation).append("name", "String value"), WriteConcern.ACKNOWLEDGED);
+                scratchCollection.remove(new BasicDBObject("_id", operation), writeConcern);
+            }
+        });
+        populateCollection(numberOfOperations);
+
+        LatencyHistogram latencies = new LatencyHistogram("Delete " + writeConcernName);
+        database.requestStart();
+        try {
+            AllocationMonitor allocations = AllocationMonitor.start();
+            long startTime = System.currentTimeMillis();
+            for (int i = 0; i < numberOfOperations; i++) {
+                long operationStart = System.nanoTime();
+                collection.remove(new BasicDBObject("_id", i), writeConcern);
+                latencies.recordSince(operationStart);
+            }
+            waitForUnacknowledgedWrites();
+            long timeTaken = System.currentTimeMillis() - startTime;
+            allocations.stop(numberOfOperations);
+            report(latencies, allocations, warmup, numberOfOperations, timeTaken, 1);
+        } finally {
+            database.requestDone();
+        }
+    }
+
+    @Test
+    public void testPerformanceOfBatchInsert() {
+        final List<DBObject> documents = new ArrayList<DBObject>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            documents.add(new BasicDBObject("name", "String value"));
+        }
+        SteadyStateWarmup warmup = warmup("Insert batch", new SteadyStateWarmup.ScratchCollectionWorkload() {
+            @Override
+            public void execute(final DBCollection scratchCollection, final int operation) {
+                for (DBObject document : documents) {
+                    document.removeField("_id");
+                }
+                scratchCollection.insert(documents, writeConcern);
+            }
+        });
+
+        // the same number of documents as the single inserts, so the figures are documents per second
+        int numberOfBatches = Math.max(1, numberOfOperations / BATCH_SIZE);
+        LatencyHistogram latencies = new LatencyHistogram("Insert batch " + writeConcernName);
+        database.requestStart();
+        try {
+            AllocationMonitor allocations = AllocationMonitor.start();
+            long startTime = System.currentTimeMillis();
+            for (int i = 0; i < numberOfBatches; i++) {
+                for (DBObject document : documents) {
+                    document.removeField("_id");
+                }
+                long operationStart = System.nanoTime();
+                collection.insert(documents, writeConcern);
+                latencies.recordSince(operationStart);
+            }
+            waitForUnacknowledgedWrites();
+            long timeTaken = System.currentTimeMillis() - startTime;
+            allocations.stop(numberOfBatches * BATCH_SIZE);
+            report(latencies, allocations, warmup, numberOfBatches * BATCH_SIZE, timeTaken, BATCH_SIZE);
+        } finally {
+            database.requestDone();
+        }
+    }
+
+    private void waitForUnacknowledgedWrites() {
+        if (!writeConcern.callGetLastError()) {
+            collection.count();
+        }
+    }
+
+    private void report(final LatencyHistogram latencies, final AllocationMonitor allocations, final SteadyStateWarmup warmup,
+                        final int operations, final long timeTaken, final int batchSize) {
+        System.out.printf("Time taken: %d millis\n", timeTaken);
+        System.out.printf("Test took: %,.3f seconds\n", timeTaken / NUM_MILLIS_IN_SECOND);
+        double operationsPerSecond = (NUM_MILLIS_IN_SECOND / timeTaken) * operations;
+        System.out.printf("%.0f ops per second%n", operationsPerSecond);
+        System.out.printf("Test,Write Concern,Batch Size,Ops per Second,Time Taken Millis,p99 Micros, %n");
+        System.out.printf("%s,%s,%d,%.0f,%d,%.1f, %n", latencies.getName(), writeConcernName, batchSize, operationsPerSecond,
+                          timeTaken, latencies.getPercentileMicros(99));
+        latencies.report();
+        allocations.report(latencies.getName());
+        new BenchmarkRecord(latencies.getName(), "1 string field")
+                .parameter("writeConcern", writeConcernName)
+                .parameter("batchSize", batchSize)
+                .operations(operations, timeTaken).latencies(latencies).allocations(allocations).warmup(warmup).write();
+    }
+
+    private SteadyStateWarmup warmup(final String operationName, final SteadyStateWarmup.ScratchCollectionWorkload workload) {
+        return SteadyStateWarmup.onScratchCollection(operationName + " " + writeConcernName, collection, workload);
+    }
+
+    private void populateCollection(final int numberOfDocuments) {
+        new BulkLoader(collection).load(numberOfDocuments, BulkLoader.copiesOf(new BasicDBObject("name", "String value")));
+        System.gc();
+        System.gc();
+    }
+}